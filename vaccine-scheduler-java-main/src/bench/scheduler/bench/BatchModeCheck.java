@@ -0,0 +1,138 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Batch mode regression check: runs batch files through scheduler.Scheduler against the embedded database, then
+ * checks the summary each of them printed and what they left in the database. Each batch runs like a new scheduler
+ * process would, so a write that was only visible inside a batch's own transaction shows up as missing in the next
+ * one. Runs as part of "mvn -Pbench verify", or on its own:
+ *
+ *     java -cp target/benchmarks.jar scheduler.bench.BatchModeCheck
+ */
+public class BatchModeCheck {
+
+    private static final Pattern ERRORS = Pattern.compile("errors: (\\d+)");
+
+    private static final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("scheduler.events.enabled", "false");
+        // QueryPlanCheck runs in the same JVM under "mvn -Pbench verify" and has registered the timers already
+        System.setProperty("scheduler.metrics.jmx", "false");
+        if (System.getProperty("scheduler.hash.iterations") == null) {
+            System.setProperty("scheduler.hash.iterations", "1000");
+        }
+        EmbeddedDatabase.start();
+        Path dir = Files.createTempDirectory("batch-check");
+        try {
+            importedAccountsLogIn(dir);
+            unicodeBlankLine(dir);
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Batch mode check failed for: " + String.join(", ", failures));
+        }
+        System.out.println("All batch mode checks passed");
+    }
+
+    // import_accounts commits its own chunks, a rollback of the batch's grouped writes must not undo them
+    private static void importedAccountsLogIn(Path dir) throws IOException, SQLException {
+        Path csv = write(dir, "accounts.csv",
+                "patient,batchcheck_patient,Secret#123",
+                "caregiver,batchcheck_caregiver,Secret#123");
+        String imported = runBatch(write(dir, "import.txt",
+                "create_caregiver batchcheck_admin Admin#123",
+                "create_patient batchcheck_later Secret#123",
+                "import_accounts " + csv));
+        String loggedIn = runBatch(write(dir, "login.txt",
+                "login_patient batchcheck_patient Secret#123",
+                "logout",
+                "login_caregiver batchcheck_caregiver Secret#123",
+                "logout",
+                "login_patient batchcheck_later Secret#123"));
+        check("import in a batch", errors(imported) == 0
+                && count("Patients", "batchcheck_patient") == 1
+                && count("Caregivers", "batchcheck_caregiver") == 1
+                && count("Patients", "batchcheck_later") == 1);
+        check("log in as imported accounts", errors(loggedIn) == 0);
+    }
+
+    // trim() leaves a line of Unicode whitespace, the tokenizer doesn't; batch files are read in the default charset
+    private static void unicodeBlankLine(Path dir) throws IOException {
+        String blank = "\u2003\u2003";
+        if (!Charset.defaultCharset().newEncoder().canEncode(blank)) {
+            System.out.println("skip  line of Unicode whitespace (" + Charset.defaultCharset() + " default charset)");
+            return;
+        }
+        Path file = dir.resolve("blank.txt");
+        Files.write(file, List.of(blank, "login_patient batchcheck_later Secret#123"), Charset.defaultCharset());
+        check("line of Unicode whitespace", errors(runBatch(file)) == 0);
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "ok    " : "FAIL  ") + name);
+        if (!ok) {
+            failures.add(name);
+        }
+    }
+
+    private static Path write(Path dir, String name, String... lines) throws IOException {
+        return Files.write(dir.resolve(name), List.of(lines));
+    }
+
+    // Runs the batch file and returns what it printed, which is also passed on to System.out
+    private static String runBatch(Path file) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+        try {
+            Scheduler.main(new String[]{"--batch", file.toString()});
+        } finally {
+            System.setOut(out);
+        }
+        String output = printed.toString(StandardCharsets.UTF_8);
+        out.print(output);
+        return output;
+    }
+
+    // The error count of the batch summary, or -1 if the batch printed none
+    private static long errors(String output) {
+        Matcher matcher = ERRORS.matcher(output);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    private static int count(String table, String username) throws SQLException {
+        try (Connection con = EmbeddedDatabase.connect();
+             PreparedStatement statement = con.prepareStatement(
+                     "SELECT COUNT(*) FROM " + table + " WHERE Username = ?")) {
+            statement.setString(1, username);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package scheduler.bench;
+
+import scheduler.db.SchemaMigrator;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * An in-memory H2 database in MSSQLServer mode, created by the schema migrations, that stands in for SQL Server.
+ * start() must run before anything touches ConnectionManager, which reads the connection settings once.
+ */
+final class EmbeddedDatabase {
+
+    static final String URL = "jdbc:h2:mem:scheduler-bench;MODE=MSSQLServer;IGNORECASE=TRUE;DB_CLOSE_DELAY=-1";
+    static final String USER = "sa";
+    static final String PASSWORD = "";
+
+    private EmbeddedDatabase() {
+    }
+
+    static void start() throws SQLException {
+        System.setProperty("scheduler.db.driver", "org.h2.Driver");
+        System.setProperty("scheduler.db.url", URL);
+        System.setProperty("scheduler.db.user", USER);
+        System.setProperty("scheduler.db.password", PASSWORD);
+        SchemaMigrator.migrate();
+    }
+
+    static Connection connect() throws SQLException {
+        return DriverManager.getConnection(URL, USER, PASSWORD);
+    }
+
+    // Runs every ;-separated statement of a script
+    static void execute(Connection con, String script) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            for (String sql : script.split(";")) {
+                if (!sql.isBlank()) {
+                    statement.execute(sql);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package scheduler.bench;
+
+import scheduler.CommandEngine;
+import scheduler.db.ConnectionManager;
+import scheduler.db.SchemaMigrator;
+import scheduler.db.TransactionRetry;
+import scheduler.util.Config;
+import scheduler.util.WaitlistMatcher;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Synthetic load for the scheduler: many sessions run create_patient, login_patient, search_caregiver_schedule,
+ * reserve, upload_availability and add_doses concurrently through CommandEngine, and afterwards the database is
+ * checked for double bookings and doses that went missing.
+ *
+ *     java -cp target/benchmarks.jar scheduler.bench.LoadGenerator [--threads 8] [--seconds 10] [--patients 200]
+ *         [--caregivers 20] [--vaccines 3] [--days 30] [--hot-dates 3] [--hot-share 0.5] [--initial-doses 50]
+ *         [--dose-batch 5] [--seed 1] [--mix reserve=35,search_caregiver_schedule=30,...]
+ *
+ * It runs against the backend configured like the scheduler's (scheduler.properties or -Dscheduler.db.*), and
+ * against the embedded database if none is. Every run creates its own users and vaccines, so it can be pointed at
+ * a database that is in use. Reservations and searches pick one of the first hot-dates dates hot-share of the time,
+ * which is what makes them contend.
+ *
+ * The checks count on what the generator did itself: every caregiver offered every date once at setup plus once
+ * per successful upload_availability, and every vaccine got the doses of its successful add_doses. A caregiver
+ * with more appointments on a date than slots offered minus the slot still open was double booked; fewer means a
+ * slot was lost. A vaccine whose doses left plus appointments differ from the doses added broke the dose
+ * accounting. Both are read with one statement each, so that reservations the waitlist matcher makes meanwhile
+ * can't make them disagree. The exit status is 1 if either check fails.
+ */
+public class LoadGenerator {
+
+    static final String PASSWORD = "Load!Pass1";
+    static final LocalDate FIRST_DATE = LocalDate.of(2031, 1, 1);
+
+    enum Operation {
+        CREATE_PATIENT("create_patient", 5),
+        LOGIN_PATIENT("login_patient", 10),
+        SEARCH("search_caregiver_schedule", 30),
+        RESERVE("reserve", 35),
+        UPLOAD_AVAILABILITY("upload_availability", 10),
+        ADD_DOSES("add_doses", 10);
+
+        private final String command;
+        private final int defaultWeight;
+
+        Operation(String command, int defaultWeight) {
+            this.command = command;
+            this.defaultWeight = defaultWeight;
+        }
+    }
+
+    private final int threads;
+    private final int seconds;
+    private final int patientCount;
+    private final int caregiverCount;
+    private final int vaccineCount;
+    private final int days;
+    private final int hotDates;
+    private final double hotShare;
+    private final int initialDoses;
+    private final int doseBatch;
+    private final long seed;
+    private final int[] weights = new int[Operation.values().length];
+
+    // every user, vaccine and session of this run is named after it
+    private final String run = Long.toString(System.currentTimeMillis(), 36);
+    private final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+    private final List<CommandEngine> patients = new ArrayList<>();
+    private final List<String> patientNames = new ArrayList<>();
+    private final List<CommandEngine> caregivers = new ArrayList<>();
+    private final List<String> vaccines = new ArrayList<>();
+
+    private final Histogram[] latencies = new Histogram[Operation.values().length];
+    private final AtomicLongArray failures = new AtomicLongArray(Operation.values().length);
+    private final AtomicLong createdPatients = new AtomicLong();
+    // what the checks expect: slots offered by caregiver and date, doses added by vaccine
+    private final ConcurrentMap<String, AtomicLong> offeredSlots = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> addedDoses = new ConcurrentHashMap<>();
+
+    private LoadGenerator(Map<String, String> options) {
+        threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+        patientCount = Integer.parseInt(options.getOrDefault("patients", "200"));
+        caregiverCount = Integer.parseInt(options.getOrDefault("caregivers", "20"));
+        vaccineCount = Integer.parseInt(options.getOrDefault("vaccines", "3"));
+        days = Integer.parseInt(options.getOrDefault("days", "30"));
+        hotDates = Math.min(days, Integer.parseInt(options.getOrDefault("hot-dates", "3")));
+        hotShare = Double.parseDouble(options.getOrDefault("hot-share", "0.5"));
+        initialDoses = Integer.parseInt(options.getOrDefault("initial-doses", "50"));
+        doseBatch = Integer.parseInt(options.getOrDefault("dose-batch", "5"));
+        seed = Long.parseLong(options.getOrDefault("seed", Long.toString(System.nanoTime())));
+        if (threads <= 0 || seconds <= 0 || patientCount <= 0 || caregiverCount <= 0 || vaccineCount <= 0
+                || days <= 0 || hotShare < 0 || hotShare > 1 || initialDoses < 0 || doseBatch <= 0) {
+            throw new IllegalArgumentException("Invalid load settings!");
+        }
+        for (Operation operation : Operation.values()) {
+            weights[operation.ordinal()] = operation.defaultWeight;
+            latencies[operation.ordinal()] = new Histogram();
+        }
+        String mix = options.get("mix");
+        if (mix != null) {
+            // operations left out of the mix don't run
+            Arrays.fill(weights, 0);
+            for (String part : mix.split(",")) {
+                String[] weight = part.split("=");
+                weights[operation(weight[0].trim()).ordinal()] = Integer.parseInt(weight[1].trim());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config.load();
+        if (System.getProperty("scheduler.db.profile") == null && System.getProperty("scheduler.db.url") == null) {
+            System.setProperty("scheduler.db.profile", "embedded");
+        }
+        // so that setting up and logging in users doesn't dominate the run, unless hashing is what is measured
+        if (System.getProperty("scheduler.hash.iterations") == null) {
+            System.setProperty("scheduler.hash.iterations", "1000");
+        }
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                System.out.println("Usage: LoadGenerator [--<option> <value> ...], see the class comment");
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        if (!Boolean.parseBoolean(System.getProperty("scheduler.db.migrate", "true"))) {
+            System.out.println("Schema migrations skipped");
+        } else {
+            SchemaMigrator.migrate();
+        }
+        WaitlistMatcher.getInstance().start();
+        boolean consistent = generator.run();
+        System.exit(consistent ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        System.out.printf("Load: %d threads for %d s, %d patients, %d caregivers, %d vaccines, %d days "
+                        + "(%d hot, %.0f%% of requests), seed %d, database profile %s%n", threads, seconds,
+                patientCount, caregiverCount, vaccineCount, days, hotDates, hotShare * 100, seed,
+                System.getProperty("scheduler.db.profile", "(url)"));
+        StringBuilder mix = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            mix.append(mix.length() == 0 ? "" : ", ").append(operation.command).append('=')
+                    .append(weights[operation.ordinal()]);
+        }
+        System.out.println("Mix: " + mix);
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            setUp(workers);
+            System.out.printf("Setup: %.1f s%n", (System.nanoTime() - start) / 1e9);
+
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            List<Callable<Long>> loops = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Random random = new Random(seed + i);
+                loops.add(() -> loop(random, deadline));
+            }
+            start = System.nanoTime();
+            long operations = 0;
+            for (Future<Long> loop : workers.invokeAll(loops)) {
+                operations += loop.get();
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            report(operations, elapsed);
+        } finally {
+            workers.shutdownNow();
+        }
+        return check();
+    }
+
+    private void setUp(ExecutorService workers) throws InterruptedException, ExecutionException {
+        List<Callable<CommandEngine>> accounts = new ArrayList<>();
+        for (int i = 0; i < caregiverCount; i++) {
+            String name = "lc" + run + "x" + i;
+            accounts.add(() -> {
+                CommandEngine engine = session("create_caregiver", name);
+                LocalDate last = FIRST_DATE.plusDays(days - 1);
+                require(engine.execute(new String[]{"upload_availability", FIRST_DATE.toString(), last.toString()}),
+                        "upload availability for " + name);
+                for (int day = 0; day < days; day++) {
+                    offered(name, FIRST_DATE.plusDays(day));
+                }
+                return engine;
+            });
+        }
+        for (int i = 0; i < patientCount; i++) {
+            String name = "lp" + run + "x" + i;
+            patientNames.add(name);
+            accounts.add(() -> session("create_patient", name));
+        }
+        List<Future<CommandEngine>> sessions = workers.invokeAll(accounts);
+        for (int i = 0; i < sessions.size(); i++) {
+            (i < caregiverCount ? caregivers : patients).add(sessions.get(i).get());
+        }
+        for (int i = 0; i < vaccineCount; i++) {
+            String name = "lv" + run + "x" + i;
+            vaccines.add(name);
+            addedDoses.put(name, new AtomicLong());
+            if (initialDoses > 0) {
+                require(caregivers.get(0).execute(new String[]{"add_doses", name, Integer.toString(initialDoses)}),
+                        "add doses of " + name);
+                addedDoses.get(name).addAndGet(initialDoses);
+            }
+        }
+    }
+
+    // Creates the account, which also logs its session in
+    private CommandEngine session(String create, String name) {
+        CommandEngine engine = new CommandEngine(discard, null);
+        require(engine.execute(new String[]{create, name, PASSWORD}), create + " " + name);
+        return engine;
+    }
+
+    private static void require(boolean ok, String what) {
+        if (!ok) {
+            throw new IllegalStateException("Setup failed: " + what);
+        }
+    }
+
+    // Runs random operations until the deadline, returns how many
+    private long loop(Random random, long deadline) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        long operations = 0;
+        while (System.nanoTime() < deadline) {
+            int pick = random.nextInt(total);
+            Operation operation = Operation.values()[0];
+            for (Operation candidate : Operation.values()) {
+                pick -= weights[candidate.ordinal()];
+                if (pick < 0) {
+                    operation = candidate;
+                    break;
+                }
+            }
+            long start = System.nanoTime();
+            boolean ok = perform(operation, random);
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+            if (!ok) {
+                failures.incrementAndGet(operation.ordinal());
+            }
+            operations++;
+        }
+        return operations;
+    }
+
+    private boolean perform(Operation operation, Random random) {
+        String date = date(random).toString();
+        if (operation == Operation.CREATE_PATIENT) {
+            CommandEngine engine = new CommandEngine(discard, null);
+            String name = "lp" + run + "n" + createdPatients.incrementAndGet();
+            return engine.execute(new String[]{operation.command, name, PASSWORD});
+        }
+        if (operation == Operation.LOGIN_PATIENT || operation == Operation.SEARCH || operation == Operation.RESERVE) {
+            int index = random.nextInt(patients.size());
+            CommandEngine engine = patients.get(index);
+            // an engine runs one command at a time
+            synchronized (engine) {
+                if (operation == Operation.LOGIN_PATIENT) {
+                    engine.execute(new String[]{"logout"});
+                    return engine.execute(new String[]{operation.command, patientNames.get(index), PASSWORD});
+                }
+                if (operation == Operation.SEARCH) {
+                    return engine.execute(new String[]{operation.command, date});
+                }
+                return engine.execute(new String[]{operation.command, date,
+                        vaccines.get(random.nextInt(vaccines.size()))});
+            }
+        }
+        int index = random.nextInt(caregivers.size());
+        CommandEngine engine = caregivers.get(index);
+        synchronized (engine) {
+            if (operation == Operation.UPLOAD_AVAILABILITY) {
+                // fails while the caregiver still offers the date, succeeds once it was booked
+                boolean ok = engine.execute(new String[]{operation.command, date});
+                if (ok) {
+                    offered("lc" + run + "x" + index, LocalDate.parse(date));
+                }
+                return ok;
+            }
+            String vaccine = vaccines.get(random.nextInt(vaccines.size()));
+            int doses = 1 + random.nextInt(doseBatch);
+            boolean ok = engine.execute(new String[]{operation.command, vaccine, Integer.toString(doses)});
+            if (ok) {
+                addedDoses.get(vaccine).addAndGet(doses);
+            }
+            return ok;
+        }
+    }
+
+    private LocalDate date(Random random) {
+        if (random.nextDouble() < hotShare) {
+            return FIRST_DATE.plusDays(random.nextInt(hotDates));
+        }
+        return FIRST_DATE.plusDays(random.nextInt(days));
+    }
+
+    private void offered(String caregiver, LocalDate date) {
+        offeredSlots.computeIfAbsent(caregiver + " " + date, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    private void report(long operations, double elapsed) {
+        System.out.printf("%nRan %d operations in %.1f s: %.1f operations/s%n%n", operations, elapsed,
+                operations / elapsed);
+        System.out.printf("%-26s %8s %8s %9s %9s %9s %9s %9s%n", "operation", "count", "failed", "ops/s",
+                "mean ms", "p50 ms", "p95 ms", "p99 ms");
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = latencies[operation.ordinal()];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            System.out.printf("%-26s %8d %8d %9.1f %9.3f %9.3f %9.3f %9.3f%n", operation.command,
+                    histogram.getCount(), failures.get(operation.ordinal()), histogram.getCount() / elapsed,
+                    histogram.getMeanMillis(), histogram.getPercentileMillis(50), histogram.getPercentileMillis(95),
+                    histogram.getPercentileMillis(99));
+        }
+        System.out.println("(failed includes reservations without a free slot or dose by patients already on its "
+                + "waitlist, and uploads of dates that were still offered; percentiles are the upper bounds of their "
+                + "histogram buckets)");
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = latencies[operation.ordinal()];
+            if (histogram.getCount() > 0) {
+                System.out.println();
+                System.out.println(operation.command + " latency:");
+                histogram.print(System.out);
+            }
+        }
+        System.out.println();
+        System.out.println("Waitlist: " + WaitlistMatcher.getInstance());
+        System.out.println("Conflicts: " + TransactionRetry.getInstance());
+        System.out.println("Connections: " + ConnectionManager.getPool());
+    }
+
+    // Returns false if a caregiver was double booked, a slot was lost or doses don't add up
+    private boolean check() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        // one statement each, so that both sides are read at the same time
+        String getSlots = "SELECT Username, Time, SUM(Booked), SUM(Open) FROM (" +
+                "SELECT Caregiver AS Username, Time, 1 AS Booked, 0 AS Open FROM Appointments WHERE Caregiver LIKE ? " +
+                "UNION ALL SELECT Username, Time, 0, 1 FROM Availabilities WHERE Username LIKE ?) AS s " +
+                "GROUP BY Username, Time; ";
+        String getDoses = "SELECT v.Name, v.Doses, (SELECT COUNT(*) FROM Appointments a WHERE a.Vaccine = v.Name) " +
+                "FROM Vaccines v WHERE v.Name LIKE ?; ";
+        long booked = 0;
+        long doubleBooked = 0;
+        long lostSlots = 0;
+        long doseViolations = 0;
+        long dosesGiven = 0;
+        try {
+            Map<String, Long> offered = new LinkedHashMap<>();
+            for (Map.Entry<String, AtomicLong> entry : offeredSlots.entrySet()) {
+                offered.put(entry.getKey(), entry.getValue().get());
+            }
+            PreparedStatement statement = cm.prepareStatement(getSlots);
+            statement.setString(1, "lc" + run + "x%");
+            statement.setString(2, "lc" + run + "x%");
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                String key = rs.getString(1) + " " + rs.getDate(2).toLocalDate();
+                long appointments = rs.getLong(3);
+                long available = offered.getOrDefault(key, 0L) - rs.getLong(4);
+                offered.remove(key);
+                booked += appointments;
+                if (appointments > available) {
+                    doubleBooked += appointments - available;
+                    System.out.println("Double booked: " + key + ", " + appointments + " appointments for "
+                            + available + " slot(s)");
+                } else if (appointments < available) {
+                    lostSlots += available - appointments;
+                    System.out.println("Lost slot: " + key + ", " + appointments + " appointments for "
+                            + available + " slot(s)");
+                }
+            }
+            // offered, but neither booked nor open any more
+            for (Map.Entry<String, Long> entry : offered.entrySet()) {
+                lostSlots += entry.getValue();
+                System.out.println("Lost slot: " + entry.getKey() + ", " + entry.getValue() + " slot(s) gone");
+            }
+
+            statement = cm.prepareStatement(getDoses);
+            statement.setString(1, "lv" + run + "x%");
+            rs = statement.executeQuery();
+            while (rs.next()) {
+                String vaccine = rs.getString(1);
+                long left = rs.getLong(2);
+                long given = rs.getLong(3);
+                long added = addedDoses.get(vaccine).get();
+                dosesGiven += given;
+                if (left < 0 || left + given != added) {
+                    doseViolations++;
+                    System.out.println("Doses don't add up: " + vaccine + ", " + added + " added, " + given
+                            + " given, " + left + " left");
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        System.out.println("Appointments: " + booked + ", double booked: " + doubleBooked + ", lost slots: "
+                + lostSlots);
+        System.out.println("Doses given: " + dosesGiven + ", dose accounting violations: " + doseViolations);
+        boolean consistent = doubleBooked == 0 && lostSlots == 0 && doseViolations == 0;
+        System.out.println(consistent ? "Consistent" : "INCONSISTENT");
+        return consistent;
+    }
+
+    private static Operation operation(String command) {
+        for (Operation operation : Operation.values()) {
+            if (operation.command.equals(command)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation " + command);
+    }
+
+    /**
+     * Latency histogram with power-of-two microsecond buckets: bucket i holds latencies below 2^i microseconds
+     * (and at least 2^(i-1)), so it covers up to about 18 minutes in 40 buckets with a relative error below 2.
+     */
+    static class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        double getMeanMillis() {
+            long n = count.get();
+            return n == 0 ? 0.0 : totalNanos.get() / 1e6 / n;
+        }
+
+        // The upper bound of the bucket that holds the given percentile (0 to 100)
+        double getPercentileMillis(double percentile) {
+            long n = count.get();
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return upperBoundMillis(i);
+                }
+            }
+            return upperBoundMillis(BUCKETS - 1);
+        }
+
+        void print(PrintStream out) {
+            long n = count.get();
+            long max = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                max = Math.max(max, buckets.get(i));
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = buckets.get(i);
+                if (c == 0) {
+                    continue;
+                }
+                out.printf("  < %10.3f ms %8d %5.1f%% %s%n", upperBoundMillis(i), c, 100.0 * c / n,
+                        "#".repeat((int) Math.max(1, 50 * c / max)));
+            }
+        }
+
+        private static double upperBoundMillis(int bucket) {
+            return (1L << bucket) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package scheduler.bench;
+
+import scheduler.db.Dialect;
+import scheduler.db.Queries;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Query plan regression check: runs every query of the model classes with EXPLAIN ANALYZE against the embedded
+ * database, filled with enough rows that a full scan stands out, and fails if any of them reads more rows than
+ * its budget or scans a table. Runs as part of "mvn -Pbench verify", or on its own:
+ *
+ *     java -cp target/benchmarks.jar scheduler.bench.QueryPlanCheck
+ *
+ * H2 reports how many rows each table access read ("scanCount"). That is checked rather than the index name,
+ * because H2 also walks a whole index to filter on a column that isn't its first one and still names the index.
+ * The statements are the ones the scheduler runs, taken from scheduler.db.Queries (built for H2 where they depend
+ * on the database), and every member of Queries has to be checked here or be listed in NOT_CHECKED.
+ */
+public class QueryPlanCheck {
+
+    static final int CAREGIVERS = 50;
+    static final int PATIENTS = 50;
+    static final int VACCINES = 100;
+    static final int DAYS = 60;
+    static final int APPOINTMENTS_PER_PATIENT = 200;
+    static final Date DAY = Date.valueOf("2030-01-11");
+
+    // H2 writes one of these per table access in an EXPLAIN ANALYZE plan
+    private static final Pattern SCAN_COUNT = Pattern.compile("scanCount: (\\d+)");
+
+    private static final List<Check> CHECKS = new ArrayList<>();
+    // Queries members that are not checked on purpose
+    private static final Set<String> NOT_CHECKED = new HashSet<>(Arrays.asList(
+            // load the whole stock and the username filters on purpose
+            "GET_VACCINES", "countUsernames", "getUsernames"));
+
+    static {
+        Dialect h2 = Dialect.H2;
+        // logins and account creation
+        check("add patient", "ADD_PATIENT", 2, Queries.ADD_PATIENT, "new", null, null);
+        check("add caregiver", "ADD_CAREGIVER", 2, Queries.ADD_CAREGIVER, "new", null, null);
+        check("get patient", "GET_PATIENT", 2, Queries.GET_PATIENT, "patient1");
+        check("get caregiver", "GET_CAREGIVER", 2, Queries.GET_CAREGIVER, "caregiver1");
+        check("patient exists", "usernameExists", 2, Queries.usernameExists("Patients"), "patient1");
+        check("caregiver exists", "usernameExists", 2, Queries.usernameExists("Caregivers"), "caregiver1");
+        check("rehash patient", "UPDATE_PATIENT_HASH", 2, Queries.UPDATE_PATIENT_HASH,
+                new byte[1], "patient1", new byte[1]);
+        check("rehash caregiver", "UPDATE_CAREGIVER_HASH", 2, Queries.UPDATE_CAREGIVER_HASH,
+                new byte[1], "caregiver1", new byte[1]);
+        check("import patient", "importAccount", 2, Queries.importAccount("Patients"),
+                "patient1", new byte[16], new byte[16], "patient1");
+        check("import caregiver", "importAccount", 2, Queries.importAccount("Caregivers"),
+                "caregiver1", new byte[16], new byte[16], "caregiver1");
+
+        // availability
+        check("caregivers on a date", "GET_AVAILABLE_CAREGIVERS", CAREGIVERS + 1, Queries.GET_AVAILABLE_CAREGIVERS,
+                DAY);
+        check("add availability", "ADD_AVAILABILITY", 2, Queries.ADD_AVAILABILITY, Date.valueOf("2031-01-01"),
+                "caregiver1");
+        check("upload availability", "ADD_AVAILABILITY_IF_ABSENT", 2, Queries.ADD_AVAILABILITY_IF_ABSENT,
+                DAY, "caregiver1", DAY, "caregiver1");
+
+        // reserve
+        check("reserve candidates", "GET_RESERVE_CANDIDATES", CAREGIVERS + 1, Queries.GET_RESERVE_CANDIDATES, DAY);
+        check("take a dose", "takeDose", 2, Queries.takeDose(h2), "vaccine1");
+        check("claim a slot", "CLAIM_SLOT", 2, Queries.CLAIM_SLOT, DAY, "caregiver1");
+        check("create appointment", "CREATE_APPOINTMENT", 2, Queries.CREATE_APPOINTMENT,
+                "vaccine1", DAY, "patient1", "caregiver1");
+        check("bookings on a date", "GET_BOOKINGS", PATIENTS * APPOINTMENTS_PER_PATIENT / DAYS + 2,
+                Queries.GET_BOOKINGS, DAY);
+
+        // cancel, which gives the slot back with the upload availability insert
+        check("get appointment", "GET_APPOINTMENT", 2, Queries.GET_APPOINTMENT, 1);
+        check("delete appointment", "DELETE_APPOINTMENT", 2, Queries.DELETE_APPOINTMENT, 1);
+        check("return a dose", "returnDose", 2, Queries.returnDose(h2), "vaccine1");
+
+        // waitlist
+        check("join waitlist", "JOIN_WAITLIST", 2, Queries.JOIN_WAITLIST,
+                "patient1", "vaccine1", DAY, "patient1", DAY, "vaccine1");
+        check("waiting on a date", "getWaitlistEntries", 101, Queries.getWaitlistEntries(true, false), 100, 0, DAY);
+        check("waiting for a vaccine", "getWaitlistEntries", 101, Queries.getWaitlistEntries(false, true),
+                100, 0, "vaccine1");
+        check("waiting on a date for a vaccine", "getWaitlistEntries", 101, Queries.getWaitlistEntries(true, true),
+                100, 0, DAY, "vaccine1");
+        check("waiting", "getWaitlistEntries", 101, Queries.getWaitlistEntries(false, false), 100, 0);
+        check("claim waitlist entry", "CLAIM_WAITLIST_ENTRY", 2, Queries.CLAIM_WAITLIST_ENTRY, 1);
+
+        // show_appointments, one page of 50 plus the row that tells whether there is another
+        Date first = Date.valueOf("0001-01-01");
+        Date last = Date.valueOf("9999-12-31");
+        check("patient appointments", "GET_PATIENT_APPOINTMENTS", 52, Queries.GET_PATIENT_APPOINTMENTS,
+                51, "patient1", first, last, first, first, 0);
+        check("caregiver appointments", "GET_CAREGIVER_APPOINTMENTS", 52, Queries.GET_CAREGIVER_APPOINTMENTS,
+                51, "caregiver1", first, last, first, first, 0);
+
+        // vaccines
+        check("add vaccine", "ADD_VACCINE", 2, Queries.ADD_VACCINE, "new", 1);
+        check("get vaccine", "GET_VACCINE", 2, Queries.GET_VACCINE, "vaccine1");
+        check("increase doses", "increaseDoses", 2, Queries.increaseDoses(h2), 1, "vaccine1");
+        check("decrease doses", "decreaseDoses", 2, Queries.decreaseDoses(h2), 1, "vaccine1", 1);
+        check("apply dose deltas", "applyDoseDeltas", 4, Queries.applyDoseDeltas(h2, 2),
+                "vaccine1", 1, "vaccine2", -1);
+
+        // events
+        check("add event", "ADD_EVENT", 2, Queries.ADD_EVENT, new Timestamp(0), "LOGIN", "patient1", "");
+    }
+
+    public static void main(String[] args) throws Exception {
+        EmbeddedDatabase.start();
+        List<String> failures = new ArrayList<>();
+        for (String member : uncheckedQueries()) {
+            System.out.println("FAIL  " + member + " (not checked)");
+            failures.add(member);
+        }
+        try (Connection con = EmbeddedDatabase.connect()) {
+            populate(con);
+            con.setAutoCommit(false);
+            for (Check check : CHECKS) {
+                String plan = explain(con, check);
+                int scanned = maxScanCount(plan);
+                boolean tableScan = plan.contains(".tableScan");
+                boolean ok = !tableScan && scanned <= check.maxRows;
+                System.out.println((ok ? "ok    " : "FAIL  ") + check.name + " (rows read: " + scanned
+                        + ", budget: " + check.maxRows + (tableScan ? ", table scan" : "") + ")");
+                if (!ok) {
+                    System.out.println(plan);
+                    failures.add(check.name);
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Query plan check failed for: " + String.join(", ", failures));
+        }
+        System.out.println("All " + CHECKS.size() + " query plans are within budget");
+    }
+
+    private static void check(String name, String member, int maxRows, String sql, Object... parameters) {
+        CHECKS.add(new Check(name, member, maxRows, sql, parameters));
+    }
+
+    // The public statements and statement builders of Queries that no check covers
+    private static List<String> uncheckedQueries() {
+        Set<String> members = new TreeSet<>();
+        for (Field field : Queries.class.getDeclaredFields()) {
+            if (Modifier.isPublic(field.getModifiers()) && field.getType() == String.class) {
+                members.add(field.getName());
+            }
+        }
+        for (Method method : Queries.class.getDeclaredMethods()) {
+            if (Modifier.isPublic(method.getModifiers()) && method.getReturnType() == String.class) {
+                members.add(method.getName());
+            }
+        }
+        for (Check check : CHECKS) {
+            members.remove(check.member);
+        }
+        members.removeAll(NOT_CHECKED);
+        return new ArrayList<>(members);
+    }
+
+    // EXPLAIN ANALYZE runs the statement, so anything it changes is rolled back again
+    private static String explain(Connection con, Check check) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement("EXPLAIN ANALYZE " + check.sql)) {
+            for (int i = 0; i < check.parameters.length; i++) {
+                statement.setObject(i + 1, check.parameters[i]);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        } finally {
+            con.rollback();
+        }
+    }
+
+    private static int maxScanCount(String plan) {
+        int max = 0;
+        Matcher matcher = SCAN_COUNT.matcher(plan);
+        while (matcher.find()) {
+            max = Math.max(max, Integer.parseInt(matcher.group(1)));
+        }
+        return max;
+    }
+
+    // Fills every table with a few thousand rows, so that a full scan reads far more rows than any budget
+    private static void populate(Connection con) throws SQLException {
+        EmbeddedDatabase.execute(con,
+                "INSERT INTO Caregivers SELECT 'caregiver' || X, NULL, NULL FROM SYSTEM_RANGE(0, " + (CAREGIVERS - 1)
+                        + ");" +
+                "INSERT INTO Patients SELECT 'patient' || X, NULL, NULL FROM SYSTEM_RANGE(0, " + (PATIENTS - 1)
+                        + ");" +
+                "INSERT INTO Vaccines SELECT 'vaccine' || X, 1000 FROM SYSTEM_RANGE(0, " + (VACCINES - 1) + ");" +
+                // every caregiver is available on every day
+                "INSERT INTO Availabilities SELECT DATEADD(DAY, X % " + DAYS + ", DATE '2030-01-01'), " +
+                        "'caregiver' || (X / " + DAYS + ") FROM SYSTEM_RANGE(0, " + (CAREGIVERS * DAYS - 1) + ");" +
+                "INSERT INTO Appointments (Vaccine, Time, Patient, Caregiver) " +
+                        "SELECT 'vaccine' || (X % " + VACCINES + "), DATEADD(DAY, X % " + DAYS + ", " +
+                        "DATE '2030-01-01'), 'patient' || (X % " + PATIENTS + "), 'caregiver' || (X % " + CAREGIVERS
+                        + ") FROM SYSTEM_RANGE(0, " + (PATIENTS * APPOINTMENTS_PER_PATIENT - 1) + ");" +
+                // every patient waits for every day, each time for another vaccine
+                "INSERT INTO Waitlist (Patient, Vaccine, Time) " +
+                        "SELECT 'patient' || (X / " + DAYS + "), 'vaccine' || (X % " + VACCINES + "), " +
+                        "DATEADD(DAY, X % " + DAYS + ", DATE '2030-01-01') FROM SYSTEM_RANGE(0, "
+                        + (PATIENTS * DAYS - 1) + ")");
+    }
+
+    private static class Check {
+        private final String name;
+        private final String member;
+        private final int maxRows;
+        private final String sql;
+        private final Object[] parameters;
+
+        private Check(String name, String member, int maxRows, String sql, Object[] parameters) {
+            this.name = name;
+            this.member = member;
+            this.maxRows = maxRows;
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+    }
+}
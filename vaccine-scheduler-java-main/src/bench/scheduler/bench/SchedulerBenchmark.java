@@ -0,0 +1,133 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.CommandEngine;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the scheduler's hot operations against the embedded database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    static final String PASSWORD = "Bench!Pass1";
+    static final String VACCINE = "Pfizer";
+    static final int USERS = 10;
+    static final LocalDate FIRST_DATE = LocalDate.of(2030, 1, 1);
+
+    private static final String[] SEARCH = {"search_caregiver_schedule", FIRST_DATE.toString()};
+    private static final String[] ADD_DOSES = {"add_doses", VACCINE, "1"};
+
+    private byte[] salt;
+    private Patient patient;
+    private Vaccine vaccine;
+    private CommandEngine searchEngine;
+    private CommandEngine caregiverEngine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        EmbeddedDatabase.start();
+        salt = Util.generateSalt();
+        for (int i = 0; i < USERS; i++) {
+            byte[] userSalt = Util.generateSalt();
+            new Patient.PatientBuilder("patient" + i, userSalt, Util.generateHash(PASSWORD, userSalt)).build()
+                    .saveToDB();
+            new Caregiver.CaregiverBuilder("caregiver" + i, userSalt, Util.generateHash(PASSWORD, userSalt)).build()
+                    .saveToDB();
+            new Caregiver.CaregiverGetter("caregiver" + i, PASSWORD).get().uploadAvailability(Date.valueOf(FIRST_DATE));
+        }
+        new Vaccine.VaccineBuilder(VACCINE, Integer.MAX_VALUE / 2).build().saveToDB();
+
+        patient = new Patient.PatientGetter("patient0", PASSWORD).get();
+        vaccine = new Vaccine.VaccineGetter(VACCINE).get();
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        searchEngine = new CommandEngine(discard, null);
+        caregiverEngine = new CommandEngine(discard, null);
+        caregiverEngine.execute(new String[]{"login_caregiver", "caregiver0", PASSWORD});
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        return Util.generateHash(PASSWORD, salt);
+    }
+
+    @Benchmark
+    public Patient loginPatient() throws SQLException {
+        return new Patient.PatientGetter("patient1", PASSWORD).get();
+    }
+
+    @Benchmark
+    public Caregiver loginCaregiver() throws SQLException {
+        return new Caregiver.CaregiverGetter("caregiver1", PASSWORD).get();
+    }
+
+    @Benchmark
+    public boolean searchCaregiverSchedule() {
+        return searchEngine.execute(SEARCH);
+    }
+
+    @Benchmark
+    public boolean addDoses() {
+        return caregiverEngine.execute(ADD_DOSES);
+    }
+
+    @Benchmark
+    public Reservation reserve(OpenSlot slot) throws SQLException {
+        return patient.reserve(slot.date, vaccine);
+    }
+
+    /**
+     * Publishes a fresh availability slot before every reserve() call, so each reservation has exactly one slot
+     * to claim. The insert is not part of the measured time.
+     */
+    @State(Scope.Thread)
+    public static class OpenSlot {
+        private Connection con;
+        private PreparedStatement addAvailability;
+        private LocalDate next = FIRST_DATE.plusDays(1);
+        Date date;
+
+        @Setup(Level.Trial)
+        public void setUp() throws SQLException {
+            con = EmbeddedDatabase.connect();
+            addAvailability = con.prepareStatement("INSERT INTO Availabilities VALUES (?, ?); ");
+        }
+
+        @Setup(Level.Invocation)
+        public void open() throws SQLException {
+            date = Date.valueOf(next);
+            next = next.plusDays(1);
+            addAvailability.setDate(1, date);
+            addAvailability.setString(2, "caregiver0");
+            addAvailability.executeUpdate();
+        }
+    }
+}
@@ -1,3 +1,5 @@
+-- Create the tables (the original create.sql)
+
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
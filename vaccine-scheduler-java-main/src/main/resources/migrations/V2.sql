@@ -0,0 +1,6 @@
+-- Widen the password hash columns for versioned hashes
+
+-- versioned hashes carry their parameters and are longer than the 16 bytes of legacy hashes
+ALTER TABLE Caregivers ALTER COLUMN Hash VARBINARY(128);
+
+ALTER TABLE Patients ALTER COLUMN Hash VARBINARY(128);
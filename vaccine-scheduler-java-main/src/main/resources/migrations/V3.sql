@@ -0,0 +1,12 @@
+-- Index appointments and availabilities by user
+
+-- show_appointments pages through one user's appointments in (Time, ID) order, which these indexes keep them in
+CREATE INDEX IX_Appointments_Patient_Time ON Appointments (Patient, Time, ID);
+
+CREATE INDEX IX_Appointments_Caregiver_Time ON Appointments (Caregiver, Time, ID);
+
+-- the primary key is (Time, Username), so looking up one caregiver's availability needs its own index
+CREATE INDEX IX_Availabilities_Username_Time ON Availabilities (Username, Time);
+
+-- the remaining foreign keys, SQL Server does not index these by itself
+CREATE INDEX IX_Appointments_Vaccine ON Appointments (Vaccine);
@@ -0,0 +1,4 @@
+-- Index appointments by date
+
+-- the least-booked caregiver selection counts the appointments of each caregiver by date
+CREATE INDEX IX_Appointments_Time_Caregiver ON Appointments (Time, Caregiver);
@@ -0,0 +1,18 @@
+-- Add the waitlist
+
+-- patients waiting for a slot on a date, booked automatically in ID (FIFO) order when slots or doses appear
+CREATE TABLE Waitlist (
+    ID int NOT NULL IDENTITY(1,1),
+    Patient varchar(255) NOT NULL REFERENCES Patients(Username),
+    Vaccine varchar(255) NOT NULL REFERENCES Vaccines(Name),
+    Time date NOT NULL,
+    PRIMARY KEY (ID)
+);
+
+-- a patient waits at most once per date and vaccine
+CREATE UNIQUE INDEX UX_Waitlist_Patient_Time_Vaccine ON Waitlist (Patient, Time, Vaccine);
+
+-- the matcher reads the entries of one date, or of one vaccine, in FIFO order
+CREATE INDEX IX_Waitlist_Time_ID ON Waitlist (Time, ID);
+
+CREATE INDEX IX_Waitlist_Vaccine_ID ON Waitlist (Vaccine, ID);
@@ -0,0 +1,11 @@
+-- Add the Events table
+
+-- the audit log, bulk-loaded from the local event segments when -Dscheduler.events.table=true
+CREATE TABLE Events (
+    ID bigint NOT NULL IDENTITY(1,1),
+    Time datetime2 NOT NULL,
+    Type varchar(32) NOT NULL,
+    Actor varchar(255) NOT NULL,
+    Detail varchar(1000),
+    PRIMARY KEY (ID)
+);
@@ -0,0 +1,802 @@
+package scheduler;
+
+import scheduler.audit.EventLog;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.UsernameRegistry;
+import scheduler.cache.VaccineCatalog;
+import scheduler.db.ConnectionManager;
+import scheduler.db.TransactionRetry;
+import scheduler.metrics.Metrics;
+import scheduler.metrics.Timer;
+import scheduler.model.AccountImport;
+import scheduler.model.AppointmentCursor;
+import scheduler.model.AvailabilityUpload;
+import scheduler.model.Cancellation;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Recurrence;
+import scheduler.model.Reservation;
+import scheduler.model.Vaccine;
+import scheduler.util.LoginVerifier;
+import scheduler.util.Util;
+import scheduler.util.WaitlistMatcher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the scheduler commands for one session. Each session keeps its own logged-in user and output, so the
+ * console, batch mode and the server can each drive as many sessions as they need. An engine is not thread-safe:
+ * callers must run one command at a time per engine, but different engines may run commands concurrently.
+ */
+public class CommandEngine {
+
+    // show_appointments pages: the default and largest page sizes, and the range used when no dates are given
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final Date FIRST_DATE = Date.valueOf("0001-01-01");
+    private static final Date LAST_DATE = Date.valueOf("9999-12-31");
+
+    // password policy: each must match somewhere in the password
+    private static final Pattern UPPERCASE = Pattern.compile("[A-Z]");
+    private static final Pattern LOWERCASE = Pattern.compile("[a-z]");
+    private static final Pattern DIGIT = Pattern.compile("[0-9]");
+    private static final Pattern SPECIAL = Pattern.compile("[!@#?]");
+
+    // every command by name, with the number of tokens it takes (including its name)
+    private static final Map<String, Command> COMMANDS = new HashMap<>();
+    // unknown commands share one timer, so that typos don't each get their own
+    private static final Timer INVALID_TIMER = Metrics.getInstance().timer("command.invalid");
+
+    static {
+        register("create_patient", 3, 3, CommandEngine::createPatient);
+        register("create_caregiver", 3, 3, CommandEngine::createCaregiver);
+        register("login_patient", 3, 3, CommandEngine::loginPatient);
+        register("login_caregiver", 3, 3, CommandEngine::loginCaregiver);
+        register("search_caregiver_schedule", 2, 2, CommandEngine::searchCaregiverSchedule);
+        register("reserve", 3, 3, CommandEngine::reserve);
+        register("upload_availability", 2, 4, CommandEngine::uploadAvailability);
+        register("cancel", 2, 2, CommandEngine::cancel);
+        register("add_doses", 3, Integer.MAX_VALUE, CommandEngine::addDoses);
+        register("show_appointments", 1, 5, CommandEngine::showAppointments);
+        register("import_accounts", 2, 2, CommandEngine::importAccounts);
+        register("logout", 1, Integer.MAX_VALUE, CommandEngine::logout);
+        register("stats", 1, 1, CommandEngine::stats);
+    }
+
+    // objects to keep track of the currently logged-in user
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in at a time
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+
+    private final PrintStream out;
+    // where new input is read from when a command needs to ask the user again, null if it never should
+    private final BufferedReader in;
+    // false in batch and server mode: no greetings, and nothing asks the user for new input
+    private final boolean interactive;
+    // true for server sessions, which must not reach the server's files
+    private final boolean remote;
+    // set by fail() when the command that is currently running reports an error
+    private boolean failed = false;
+
+    // An engine for the console or a batch file
+    public CommandEngine(PrintStream out, BufferedReader in) {
+        this(out, in, false);
+    }
+
+    public CommandEngine(PrintStream out, BufferedReader in, boolean remote) {
+        this.out = out;
+        this.in = in;
+        this.interactive = in != null;
+        this.remote = remote;
+    }
+
+    // Getters
+    public Caregiver getCurrentCaregiver() {
+        return currentCaregiver;
+    }
+
+    public Patient getCurrentPatient() {
+        return currentPatient;
+    }
+
+    private static void register(String name, int minTokens, int maxTokens, BiConsumer<CommandEngine, String[]> handler) {
+        COMMANDS.put(name, new Command(minTokens, maxTokens, handler, Metrics.getInstance().timer("command." + name)));
+    }
+
+    /**
+     * Splits a line into the tokens separated by runs of whitespace, ignoring leading and trailing whitespace.
+     * Returns an empty array for a blank line.
+     */
+    public static String[] tokenize(String line) {
+        int length = line.length();
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (!Character.isWhitespace(line.charAt(i)) && (i == 0 || Character.isWhitespace(line.charAt(i - 1)))) {
+                count++;
+            }
+        }
+        String[] tokens = new String[count];
+        int i = 0;
+        for (int next = 0; next < count; next++) {
+            while (Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            int begin = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            tokens[next] = line.substring(begin, i);
+        }
+        return tokens;
+    }
+
+    /**
+     * Runs one command and returns false if it reported an error.
+     */
+    public boolean execute(String[] tokens) {
+        failed = false;
+        long start = System.nanoTime();
+        // determine which operation to perform
+        Command command = tokens.length == 0 ? null : COMMANDS.get(tokens[0]);
+        if (command == null) {
+            fail("Invalid operation name!");
+            INVALID_TIMER.recordSince(start, false);
+            return false;
+        }
+        // the number of tokens is checked here, the handlers parse and check the values
+        if (tokens.length < command.minTokens || tokens.length > command.maxTokens) {
+            fail("Please try again!");
+        } else {
+            command.handler.accept(this, tokens);
+        }
+        command.timer.recordSince(start, !failed);
+        return !failed;
+    }
+
+    // Prints an error message and marks the running command as failed
+    private void fail(String message) {
+        failed = true;
+        out.println(message);
+    }
+
+    public void greetings() {
+        if (!interactive) {
+            return;
+        }
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
+        out.println("> create_caregiver <username> <password>");
+        out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
+        out.println("> login_caregiver <username> <password>");
+        out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
+        out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
+        out.println("> upload_availability <date>");
+        out.println("> upload_availability <start_date> <end_date> [daily|weekdays|weekends]");
+        out.println("> cancel <appointment_id>");
+        out.println("> add_doses <vaccine> <number> [<vaccine> <number> ...]");
+        out.println("> show_appointments [<from_date> <to_date>] [<page_size> [<cursor>]]");
+        out.println("> import_accounts <csv_file>");
+        out.println("> logout");  // TODO: implement logout (Part 2)
+        out.println("> stats");
+        out.println("> quit");
+        out.println();
+    }
+
+    private void createPatient(String[] tokens) {
+        // create_patient <username> <password>
+        String username = tokens[1];
+        String password = tokens[2];
+        password = createStrongPassword(password);
+        if (password == null) {
+            fail("Please try again!");
+            return;
+        }
+        // check 2: check if the username has been taken already
+        if (usernameExistsPatient(username)) {
+            fail("Username taken, try again!");
+            return;
+        }
+
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(password, salt);
+        // create the caregiver
+        try {
+            Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
+            // save to caregiver information to our database, the primary key catches a name taken since check 2
+            patient.saveToDB();
+            currentPatient = patient;
+            EventLog.getInstance().record(EventLog.Type.CREATE_PATIENT, username, null);
+            out.println(" *** Account created successfully *** ");
+            greetings();
+        } catch (SQLIntegrityConstraintViolationException e) {
+            fail("Username taken, try again!");
+        } catch (SQLException e) {
+            fail("Create failed");
+            e.printStackTrace();
+        }
+    }
+
+    private void createCaregiver(String[] tokens) {
+        // create_caregiver <username> <password>
+        String username = tokens[1];
+        String password = tokens[2];
+        password = createStrongPassword(password);
+        if (password == null) {
+            fail("Please try again!");
+            return;
+        }
+        // check 2: check if the username has been taken already
+        if (usernameExistsCaregiver(username)) {
+            fail("Username taken, try again!");
+            return;
+        }
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(password, salt);
+        // create the caregiver
+        try {
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
+            // save to caregiver information to our database, the primary key catches a name taken since check 2
+            caregiver.saveToDB();
+            currentCaregiver = caregiver;
+            EventLog.getInstance().record(EventLog.Type.CREATE_CAREGIVER, username, null);
+            out.println(" *** Account created successfully *** ");
+            greetings();
+        } catch (SQLIntegrityConstraintViolationException e) {
+            fail("Username taken, try again!");
+        } catch (SQLException e) {
+            fail("Create failed");
+            e.printStackTrace();
+        }
+    }
+
+    // the registry only queries the table when its bloom filter can't rule the name out
+    private boolean usernameExistsCaregiver(String username) {
+        try {
+            return UsernameRegistry.caregivers().exists(username);
+        } catch (SQLException e) {
+            // go ahead, the insert is checked by the primary key anyway
+            out.println("Error occurred when checking username");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private boolean usernameExistsPatient(String username) {
+        try {
+            return UsernameRegistry.patients().exists(username);
+        } catch (SQLException e) {
+            // go ahead, the insert is checked by the primary key anyway
+            out.println("Error occurred when checking username");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void loginPatient(String[] tokens) {
+        // login_caregiver <username> <password>
+        // check 1: if someone's already logged-in, they need to log out first
+        if (currentCaregiver != null || currentPatient != null) {
+            fail("Already logged-in!");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+        Patient patient = null;
+        try {
+            patient = new Patient.PatientGetter(username, password).get();
+        } catch (RejectedExecutionException e) {
+            // admission control: too many logins are waiting for password verification
+            fail("Server busy, please retry!");
+            return;
+        } catch (SQLException e) {
+            fail("Error occurred when logging in");
+            e.printStackTrace();
+        }
+        // check if the login was successful
+        if (patient == null) {
+            EventLog.getInstance().record(EventLog.Type.LOGIN_FAILED, username, "patient");
+            fail("Please try again!");
+        } else {
+            EventLog.getInstance().record(EventLog.Type.LOGIN_PATIENT, username, null);
+            out.println("Patient logged in as: " + username);
+            currentPatient = patient;
+            greetings();
+        }
+    }
+
+    private void loginCaregiver(String[] tokens) {
+        // login_caregiver <username> <password>
+        // check 1: if someone's already logged-in, they need to log out first
+        if (currentCaregiver != null || currentPatient != null) {
+            fail("Already logged-in!");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+
+        Caregiver caregiver = null;
+        try {
+            caregiver = new Caregiver.CaregiverGetter(username, password).get();
+        } catch (RejectedExecutionException e) {
+            // admission control: too many logins are waiting for password verification
+            fail("Server busy, please retry!");
+            return;
+        } catch (SQLException e) {
+            fail("Error occurred when logging in");
+            e.printStackTrace();
+        }
+        // check if the login was successful
+        if (caregiver == null) {
+            EventLog.getInstance().record(EventLog.Type.LOGIN_FAILED, username, "caregiver");
+            fail("Please try again!");
+        } else {
+            EventLog.getInstance().record(EventLog.Type.LOGIN_CAREGIVER, username, null);
+            out.println("Caregiver logged in as: " + username);
+            currentCaregiver = caregiver;
+            greetings();
+        }
+    }
+
+    private void searchCaregiverSchedule(String[] tokens) {
+        // answered from the in-memory caches, which only go to the database the first time a date is searched and
+        // when the cached vaccine stock has expired
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        String date = tokens[1];
+        try {
+            Date d = Date.valueOf(date);
+            NavigableSet<String> caregivers = index.getCaregivers(d);
+            out.println("Available Caregivers: ");
+            for (String caregiver : caregivers) {
+                out.println("> Caregiver Name: " + caregiver);
+            }
+            out.println("Available Vaccines: ");
+            for (Map.Entry<String, Integer> vaccine : VaccineCatalog.getInstance().getStock().entrySet()) {
+                out.println("> Vaccine Name: " + vaccine.getKey() + ", Doses left: " + vaccine.getValue());
+            }
+            greetings();
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+        } catch (SQLException e) {
+            fail("Error occurred when displaying Caregiver Schedule.");
+            e.printStackTrace();
+        }
+    }
+
+    private void reserve(String[] tokens) {
+        if (currentPatient == null) {
+            fail("Please login as a Patient first!");
+            return;
+        }
+        String date = tokens[1];
+        String vaccineName = tokens[2];
+
+        Vaccine vaccine = null;
+        while(true) {
+            try {
+                vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+            } catch (SQLException e) {
+                fail("Error occurred when making appointment");
+                e.printStackTrace();
+                return;
+            }
+            if (vaccine == null) {
+                if (!interactive) {
+                    fail("Vaccine does not exist.");
+                    return;
+                }
+                out.println("Vaccine does not exist. Please enter an existing vaccine.");
+                vaccineName = getNewInput();
+                if (vaccineName == null) {
+                    fail("Please try again!");
+                    return;
+                }
+                continue;
+            }
+            break;
+        }
+        try {
+            Date d = Date.valueOf(date);
+            Reservation reservation = currentPatient.reserve(d, vaccine);
+            if (reservation.getStatus() == Reservation.Status.NO_CAREGIVER) {
+                waitlist(d, vaccine, "No caregiver is available on the given date.");
+            } else if (reservation.getStatus() == Reservation.Status.NO_DOSES) {
+                waitlist(d, vaccine, "Not enough available doses of " + vaccine.getVaccineName() + ".");
+            } else {
+                EventLog.getInstance().record(EventLog.Type.RESERVE, currentPatient.getUsername(), "appointment="
+                        + reservation.getAppointmentId() + " date=" + d + " vaccine=" + vaccine.getVaccineName()
+                        + " caregiver=" + reservation.getCaregiver());
+                out.println("Appointment Reserved! Appointment ID: " + reservation.getAppointmentId()
+                        + ", Caregiver: " + reservation.getCaregiver());
+            }
+            greetings();
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+        } catch (SQLException e) {
+            fail("Error occurred when creating appointment");
+            e.printStackTrace();
+        }
+    }
+
+    // Puts the patient on the waitlist after a reservation found nothing free; joining it is not an error
+    private void waitlist(Date d, Vaccine vaccine, String reason) throws SQLException {
+        if (!WaitlistMatcher.isEnabled()) {
+            fail("Failed to schedule Appointment. " + reason + " Please try again.");
+        } else if (!currentPatient.joinWaitlist(d, vaccine)) {
+            fail("Failed to schedule Appointment. " + reason + " You are already on the waitlist for " + d + ".");
+        } else {
+            out.println(reason + " You are on the waitlist for " + d + " and will be booked automatically when a "
+                    + "slot opens (see show_appointments).");
+        }
+    }
+
+    private void uploadAvailability(String[] tokens) {
+        // upload_availability <date>
+        // upload_availability <start_date> <end_date> [daily|weekdays|weekends]
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        // a single date, or a date range with an optional recurrence
+        if (tokens.length == 2) {
+            String date = tokens[1];
+            try {
+                Date d = Date.valueOf(date);
+                currentCaregiver.uploadAvailability(d);
+                EventLog.getInstance().record(EventLog.Type.UPLOAD_AVAILABILITY, currentCaregiver.getUsername(), "date=" + d);
+                out.println("Availability uploaded!");
+                greetings();
+            } catch (IllegalArgumentException e) {
+                fail("Please enter a valid date!");
+            } catch (SQLException e) {
+                fail("Error occurred when uploading availability");
+                e.printStackTrace();
+            }
+            return;
+        }
+        Date start;
+        Date end;
+        try {
+            start = Date.valueOf(tokens[1]);
+            end = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+            return;
+        }
+        long days = end.toLocalDate().toEpochDay() - start.toLocalDate().toEpochDay() + 1;
+        if (days <= 0 || days > Caregiver.MAX_UPLOAD_DAYS) {
+            fail("Please enter a date range of 1 to " + Caregiver.MAX_UPLOAD_DAYS + " days!");
+            return;
+        }
+        Recurrence recurrence = Recurrence.DAILY;
+        if (tokens.length == 4) {
+            try {
+                recurrence = Recurrence.parse(tokens[3]);
+            } catch (IllegalArgumentException e) {
+                fail("Please enter daily, weekdays or weekends!");
+                return;
+            }
+        }
+        try {
+            AvailabilityUpload upload = currentCaregiver.uploadAvailability(start, end, recurrence);
+            EventLog.getInstance().record(EventLog.Type.UPLOAD_AVAILABILITY, currentCaregiver.getUsername(), "from=" + start
+                    + " to=" + end + " recurrence=" + recurrence + " inserted=" + upload.getInserted());
+            out.println("Availability uploaded! Inserted: " + upload.getInserted()
+                    + ", skipped (already uploaded): " + upload.getSkipped());
+            greetings();
+        } catch (SQLException e) {
+            fail("Error occurred when uploading availability");
+            e.printStackTrace();
+        }
+    }
+
+    private void cancel(String[] tokens) {
+        // cancel <appointment_id>
+        // check 1: check if the current logged-in user is a patient or a caregiver
+        if (currentPatient == null && currentCaregiver == null) {
+            fail("Please login first!");
+            return;
+        }
+        int appointmentId;
+        try {
+            appointmentId = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            fail("Please enter a valid appointment ID!");
+            return;
+        }
+        try {
+            Cancellation cancellation;
+            if (currentPatient != null) {
+                cancellation = currentPatient.cancel(appointmentId);
+            } else {
+                cancellation = currentCaregiver.cancel(appointmentId);
+            }
+            if (cancellation.getStatus() == Cancellation.Status.NOT_FOUND) {
+                fail("Appointment " + appointmentId + " does not exist.");
+            } else if (cancellation.getStatus() == Cancellation.Status.NOT_ALLOWED) {
+                fail("You can only cancel your own appointments!");
+            } else {
+                EventLog.getInstance().record(EventLog.Type.CANCEL, currentPatient != null ? currentPatient.getUsername()
+                        : currentCaregiver.getUsername(), "appointment=" + appointmentId + " date="
+                        + cancellation.getTime() + " vaccine=" + cancellation.getVaccine() + " caregiver="
+                        + cancellation.getCaregiver());
+                out.println("Appointment " + appointmentId + " cancelled! " + cancellation.getCaregiver()
+                        + " is available again on " + cancellation.getTime());
+            }
+            greetings();
+        } catch (SQLException e) {
+            fail("Error occurred when cancelling appointment");
+            e.printStackTrace();
+        }
+    }
+
+    private void addDoses(String[] tokens) {
+        // add_doses <vaccine> <number> [<vaccine> <number> ...]
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the tokens need to hold (vaccine, number) pairs after the operation name
+        if (tokens.length % 2 == 0) {
+            fail("Please try again!");
+            return;
+        }
+        // names that differ only in case are the same vaccine to the database
+        Map<String, Integer> deltas = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        try {
+            for (int i = 1; i < tokens.length; i += 2) {
+                int doses = Integer.parseInt(tokens[i + 1]);
+                if (doses <= 0) {
+                    fail("Please try again!");
+                    return;
+                }
+                deltas.merge(tokens[i], doses, Integer::sum);
+            }
+        } catch (NumberFormatException e) {
+            fail("Please try again!");
+            return;
+        }
+        try {
+            // all existing vaccines are updated in one statement
+            Map<String, Integer> updated = Vaccine.applyDoseDeltas(deltas);
+            // check 3: vaccines that weren't updated don't exist yet, so we insert them into the Vaccines table
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                if (updated.containsKey(entry.getKey())) {
+                    continue;
+                }
+                Vaccine vaccine = new Vaccine.VaccineBuilder(entry.getKey(), entry.getValue()).build();
+                try {
+                    vaccine.saveToDB();
+                } catch (SQLIntegrityConstraintViolationException e) {
+                    // another caregiver added the vaccine in the meantime
+                    vaccine.increaseAvailableDoses(entry.getValue());
+                }
+            }
+        } catch (SQLException e) {
+            fail("Error occurred when adding doses");
+            e.printStackTrace();
+            return;
+        }
+        StringBuilder added = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            added.append(added.length() == 0 ? "" : " ").append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        EventLog.getInstance().record(EventLog.Type.ADD_DOSES, currentCaregiver.getUsername(), added.toString());
+        out.println("Doses updated!");
+        greetings();
+    }
+
+    private void importAccounts(String[] tokens) {
+        // import_accounts <csv_file>
+        // the file is read on the machine the scheduler runs on, so only its own console and batch files may
+        if (remote) {
+            fail("import_accounts is only available on the console and in batch files!");
+            return;
+        }
+        if (currentCaregiver == null) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        AccountImport result;
+        try (BufferedReader csv = new BufferedReader(new FileReader(tokens[1]))) {
+            result = AccountImport.run(csv, CommandEngine::passwordWeakness);
+        } catch (IOException e) {
+            fail("Error occurred when reading " + tokens[1]);
+            e.printStackTrace();
+            return;
+        } catch (SQLException e) {
+            // the chunks before the failing one stay imported
+            fail("Error occurred when importing accounts");
+            e.printStackTrace();
+            return;
+        }
+        EventLog.getInstance().record(EventLog.Type.IMPORT_ACCOUNTS, currentCaregiver.getUsername(), "file="
+                + tokens[1] + " patients=" + result.getPatients() + " caregivers=" + result.getCaregivers()
+                + " duplicates=" + result.getDuplicates() + " invalid=" + result.getInvalid());
+        out.println("Imported " + result.getPatients() + " patient(s) and " + result.getCaregivers()
+                + " caregiver(s), skipped " + result.getDuplicates() + " duplicate(s) and " + result.getInvalid()
+                + " invalid row(s)");
+        List<String> problems = result.getProblems();
+        for (String problem : problems) {
+            out.println("> " + problem);
+        }
+        if (result.getProblemCount() > problems.size()) {
+            out.println("> ... and " + (result.getProblemCount() - problems.size()) + " more");
+        }
+        greetings();
+    }
+
+    private void showAppointments(String[] tokens) {
+        // show_appointments [<from_date> <to_date>] [<page_size> [<cursor>]]
+        if (currentPatient == null && currentCaregiver == null) {
+            fail("Please login first!");
+            return;
+        }
+        Date from = FIRST_DATE;
+        Date to = LAST_DATE;
+        int pageSize = DEFAULT_PAGE_SIZE;
+        AppointmentCursor after = AppointmentCursor.START;
+        int next = 1;
+        try {
+            // a date range is recognised by its first token looking like a date
+            if (tokens.length >= 3 && tokens[1].indexOf('-') > 0) {
+                from = Date.valueOf(tokens[1]);
+                to = Date.valueOf(tokens[2]);
+                next = 3;
+            }
+            if (tokens.length > next) {
+                pageSize = Integer.parseInt(tokens[next++]);
+            }
+            if (tokens.length > next) {
+                after = AppointmentCursor.parse(tokens[next++]);
+            }
+        } catch (IllegalArgumentException e) {
+            fail("Please try again!");
+            return;
+        }
+        if (tokens.length != next || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            fail("Please try again!");
+            return;
+        }
+
+        // rows are written through a buffer instead of one println per row
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+        try {
+            writer.println("Appointments:");
+            AppointmentCursor nextPage;
+            if (currentPatient != null) {
+                nextPage = currentPatient.viewAppointments(from, to, pageSize, after, writer);
+            } else {
+                nextPage = currentCaregiver.viewAppointments(from, to, pageSize, after, writer);
+            }
+            if (nextPage != null) {
+                writer.println("More appointments: show_appointments " + from + " " + to + " " + pageSize + " "
+                        + nextPage);
+            }
+            writer.flush();
+            greetings();
+        } catch (SQLException | IOException e) {
+            writer.flush();
+            fail("Error occurred when showing appointments.");
+            e.printStackTrace();
+        }
+    }
+
+    private void logout(String[] tokens) {
+        currentCaregiver = null;
+        currentPatient = null;
+        out.println("*** You are now logged out ***");
+        greetings();
+    }
+
+    private void stats(String[] tokens) {
+        // stats
+        out.println("Timers (milliseconds):");
+        for (Timer timer : Metrics.getInstance().getTimers()) {
+            out.println(String.format("%s count=%d errors=%d mean=%.3f p50=%.3f p95=%.3f p99=%.3f",
+                    timer.getName(), timer.getCount(), timer.getErrorCount(), timer.getMeanMillis(),
+                    timer.getP50Millis(), timer.getP95Millis(), timer.getP99Millis()));
+        }
+        out.println("Connections: " + ConnectionManager.getPool());
+        out.println("Availability cache: " + AvailabilityIndex.getInstance());
+        out.println("Vaccine cache: " + VaccineCatalog.getInstance());
+        out.println("Logins: " + LoginVerifier.getInstance());
+        out.println("Conflicts: " + TransactionRetry.getInstance());
+        greetings();
+    }
+
+    // Returns null if the password is too weak and no new one can be asked for
+    private String createStrongPassword(String password) {
+        while (password != null) {
+            String weakness = passwordWeakness(password);
+            if (weakness == null) {
+                return password;
+            }
+            out.println(weakness);
+            password = getNewPassword();
+        }
+        return null;
+    }
+
+    // Returns why the password is too weak, or null if it is strong enough
+    private static String passwordWeakness(String password) {
+        if (password.length() < 8){
+            return "Password is too short. It must be have more than 8 characters.";
+        } else if (!UPPERCASE.matcher(password).find() || !LOWERCASE.matcher(password).find()) {
+            return "Password needs to contain both Uppercase and Lowercase characters.";
+        } else if (!DIGIT.matcher(password).find()) {
+            return "Password needs to contain number(s).";
+        } else if (!SPECIAL.matcher(password).find()) {
+            return "Password must contain a special character from “!”, “@”, “#”, “?”.";
+        }
+        return null;
+    }
+
+    private String getNewPassword() {
+        if (!interactive) {
+            return null;
+        }
+        out.println("Please enter a new Password");
+        return getNewInput();
+    }
+
+    private String getNewInput() {
+        if (!interactive) {
+            return null;
+        }
+        String input = "";
+        while (true) {
+            out.print("> ");
+            try {
+                input = in.readLine();
+            } catch (IOException e) {
+                out.println("Please try again!");
+            }
+            if (input == null) {
+                return null;
+            }
+            // the input needs to be exactly one token
+            String[] tokens = tokenize(input);
+            if (tokens.length != 1) {
+                out.println("Please try again!");
+                continue;
+            }
+            return tokens[0];
+        }
+    }
+
+    private static class Command {
+        private final int minTokens;
+        private final int maxTokens;
+        private final BiConsumer<CommandEngine, String[]> handler;
+        private final Timer timer;
+
+        private Command(int minTokens, int maxTokens, BiConsumer<CommandEngine, String[]> handler, Timer timer) {
+            this.minTokens = minTokens;
+            this.maxTokens = maxTokens;
+            this.handler = handler;
+            this.timer = timer;
+        }
+    }
+}
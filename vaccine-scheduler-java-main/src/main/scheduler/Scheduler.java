@@ -1,36 +1,106 @@
 package scheduler;
 
+import scheduler.audit.EventLog;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.BookingCounter;
+import scheduler.cache.UsernameRegistry;
+import scheduler.cache.VaccineCatalog;
 import scheduler.db.ConnectionManager;
-import scheduler.model.Caregiver;
-import scheduler.model.Patient;
-import scheduler.model.Vaccine;
-import scheduler.util.Util;
+import scheduler.db.SchemaMigrator;
+import scheduler.db.TransactionRetry;
+import scheduler.metrics.Metrics;
+import scheduler.server.SchedulerServer;
+import scheduler.util.Config;
+import scheduler.util.PasswordHasher;
+import scheduler.util.WaitlistMatcher;
 
 import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.sql.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    // commands that write to the database, batch mode groups consecutive ones into one transaction; every other
+    // command runs outside of it, including import_accounts, which commits its own chunks
+    private static final Set<String> WRITE_OPERATIONS = Set.of("create_patient", "create_caregiver", "reserve",
+            "upload_availability", "cancel", "add_doses");
+    private static final int DEFAULT_BATCH_TRANSACTION_SIZE = 50;
 
     public static void main(String[] args) {
-        // printing greetings text
-        greetings();
+        // settings from scheduler.properties, before any class reads them
+        try {
+            Config.load();
+        } catch (IOException e) {
+            System.out.println("Error occurred when reading the configuration");
+            e.printStackTrace();
+            return;
+        }
+        // prints the iteration count for which one password hash takes about the given time on this machine
+        if (args.length > 0 && args[0].equals("--calibrate-hash")) {
+            if (args.length != 2) {
+                System.out.println("Usage: Scheduler --calibrate-hash <milliseconds>");
+                return;
+            }
+            PasswordHasher current = PasswordHasher.getInstance();
+            long targetMillis = Long.parseLong(args[1]);
+            int iterations = PasswordHasher.calibrate(current.getAlgorithm(), current.getKeyLength(), targetMillis);
+            System.out.println("Current settings: " + current);
+            System.out.println("Use -Dscheduler.hash.iterations=" + iterations + " for about " + targetMillis
+                    + " ms per hash with " + current.getAlgorithm() + " and a " + current.getKeyLength()
+                    + "-bit key");
+            return;
+        }
+        if (!migrateSchema()) {
+            return;
+        }
+        loadUsernames();
+        WaitlistMatcher.getInstance().start();
+        EventLog.getInstance().start();
+        dumpMetricsOnExit();
+        // server mode: Scheduler --server <port>
+        if (args.length > 0 && args[0].equals("--server")) {
+            if (args.length != 2) {
+                System.out.println("Usage: Scheduler --server <port>");
+                return;
+            }
+            try {
+                new SchedulerServer(Integer.parseInt(args[1])).start();
+            } catch (IOException e) {
+                System.out.println("Error occurred when starting the server");
+                e.printStackTrace();
+            }
+            return;
+        }
+        // batch mode: Scheduler --batch <file> [--tx-size <number>]
+        if (args.length > 0 && args[0].equals("--batch")) {
+            int transactionSize = DEFAULT_BATCH_TRANSACTION_SIZE;
+            if (args.length == 4 && args[2].equals("--tx-size")) {
+                try {
+                    transactionSize = Integer.parseInt(args[3]);
+                } catch (NumberFormatException e) {
+                    transactionSize = 0;
+                }
+            } else if (args.length != 2) {
+                transactionSize = 0;
+            }
+            if (transactionSize < 1) {
+                System.out.println("Usage: Scheduler --batch <file> [--tx-size <number>]");
+                return;
+            }
+            runBatch(args[1], transactionSize);
+            return;
+        }
 
         // read input from user
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+        CommandEngine engine = new CommandEngine(System.out, r);
+
+        // printing greetings text
+        engine.greetings();
         while (true) {
             System.out.print("> ");
             String response = "";
@@ -39,467 +109,202 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
+            // end of input
+            if (response == null) {
+                return;
+            }
+            // split the user input by whitespace
+            String[] tokens = CommandEngine.tokenize(response);
             // check if input exists
             if (tokens.length == 0) {
                 System.out.println("Please try again!");
                 continue;
             }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
+            if (tokens[0].equals("quit")) {
                 System.out.println("Bye!");
                 return;
-            } else {
-                System.out.println("Invalid operation name!");
             }
+            engine.execute(tokens);
         }
     }
 
-    private static void greetings() {
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
-    }
-
-    private static void createPatient(String[] tokens) {
-        // create_caregiver <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
-        }
-
-        String username = tokens[1];
-        String password = tokens[2];
-        password = createStrongPassword(password);
-        // check 2: check if the username has been taken already
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
-            return;
-        }
-
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
-        // create the caregiver
-        try {
-            currentPatient = new Patient.PatientBuilder(username, salt, hash).build();
-            // save to caregiver information to our database
-            currentPatient.saveToDB();
-            System.out.println(" *** Account created successfully *** ");
-            greetings();
-        } catch (SQLException e) {
-            System.out.println("Create failed");
-            e.printStackTrace();
-        }
-    }
-
-    private static void createCaregiver(String[] tokens) {
-        // create_caregiver <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
-        }
-        String username = tokens[1];
-        String password = tokens[2];
-        password = createStrongPassword(password);
-        // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
-            return;
-        }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
-        // create the caregiver
-        try {
-            currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
-            // save to caregiver information to our database
-            currentCaregiver.saveToDB();
-            System.out.println(" *** Account created successfully *** ");
-            greetings();
-        } catch (SQLException e) {
-            System.out.println("Create failed");
-            e.printStackTrace();
-        }
-    }
-
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?; ";
-        try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
-        }
-        return true;
-    }
-
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?; ";
-        try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
-        }
-        return true;
-    }
-
-    private static void loginPatient(String[] tokens) {
-        // login_caregiver <username> <password>
-        // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("Already logged-in!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
+    // With -Dscheduler.metrics.dump=<file>, writes every timer to the file as JSON when the process exits
+    private static void dumpMetricsOnExit() {
+        String file = System.getProperty("scheduler.metrics.dump");
+        if (file == null || file.isEmpty()) {
             return;
         }
-        String username = tokens[1];
-        String password = tokens[2];
-        Patient patient = null;
-        try {
-            patient = new Patient.PatientGetter(username, password).get();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when logging in");
-            e.printStackTrace();
-        }
-        // check if the login was successful
-        if (patient == null) {
-            System.out.println("Please try again!");
-        } else {
-            System.out.println("Patient logged in as: " + username);
-            currentPatient = patient;
-            greetings();
-        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Metrics.getInstance().dump(Paths.get(file));
+            } catch (IOException e) {
+                System.out.println("Error occurred when writing metrics to " + file);
+                e.printStackTrace();
+            }
+        }));
     }
 
-    private static void loginCaregiver(String[] tokens) {
-        // login_caregiver <username> <password>
-        // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("Already logged-in!");
-            return;
+    /**
+     * Brings the database schema up to date, unless -Dscheduler.db.migrate=false (e.g. for a database user that
+     * may not run DDL). Returns false if the schema could not be migrated.
+     */
+    private static boolean migrateSchema() {
+        if (!Boolean.parseBoolean(System.getProperty("scheduler.db.migrate", "true"))) {
+            return true;
         }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
-        }
-        String username = tokens[1];
-        String password = tokens[2];
-
-        Caregiver caregiver = null;
         try {
-            caregiver = new Caregiver.CaregiverGetter(username, password).get();
+            int applied = SchemaMigrator.migrate();
+            if (applied > 0) {
+                System.out.println("Applied " + applied + " schema migration(s)");
+            }
+            return true;
         } catch (SQLException e) {
-            System.out.println("Error occurred when logging in");
+            System.out.println("Error occurred when migrating the database schema");
             e.printStackTrace();
-        }
-        // check if the login was successful
-        if (caregiver == null) {
-            System.out.println("Please try again!");
-        } else {
-            System.out.println("Caregiver logged in as: " + username);
-            currentCaregiver = caregiver;
-            greetings();
+            return false;
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
-        }
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String getSchedule = "SELECT Username FROM Availabilities WHERE Time = ?; ";
-        String getVaccineInfo = "SELECT * FROM Vaccines; ";
-        String date = tokens[1];
+    // Fills the username filters, they are loaded again on first use if this fails
+    private static void loadUsernames() {
         try {
-            Date d = Date.valueOf(date);
-            PreparedStatement statement = con.prepareStatement(getSchedule);
-            statement.setDate(1, d);
-            ResultSet rs = statement.executeQuery();
-            System.out.println("Available Caregivers: ");
-            while(rs.next()) {
-                System.out.println("> Caregiver Name: " + rs.getString(1));
-            }
-            PreparedStatement statement1 = con.prepareStatement(getVaccineInfo);
-            ResultSet rs2 = statement1.executeQuery();
-            System.out.println("Available Vaccines: ");
-            while(rs2.next()) {
-                System.out.println("> Vaccine Name: " + rs2.getString(1) + ", Doses left: " + rs2.getInt(2));
-            }
-            greetings();
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            UsernameRegistry.patients().load();
+            UsernameRegistry.caregivers().load();
         } catch (SQLException e) {
-            System.out.println("Error occurred when displaying Caregiver Schedule.");
+            System.out.println("Error occurred when loading usernames");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void reserve(String[] tokens) {
-        if (currentPatient == null) {
-            System.out.println("Please login as a Patient first!");
-            return;
-        }
-
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
-        }
-        String date = tokens[1];
-        String vaccineName = tokens[2];
-
-        Vaccine vaccine = null;
-        while(true) {
-            try {
-                vaccine = new Vaccine.VaccineGetter(vaccineName).get();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when making appointment");
-                e.printStackTrace();
+    /**
+     * Runs the commands in the given file without greetings or prompts. Consecutive write commands are grouped
+     * into transactions of up to transactionSize commands, and a summary is printed at the end.
+     */
+    private static void runBatch(String file, int transactionSize) {
+        CommandEngine engine = new CommandEngine(System.out, null);
+        long lines = 0;
+        long commands = 0;
+        long errors = 0;
+        long transactions = 0;
+        // write commands that ran in the open transaction and are lost if it fails to commit
+        long pendingWrites = 0;
+        long start = System.nanoTime();
+
+        try (BufferedReader r = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                lines++;
+                line = line.trim();
+                // skip blank lines and comments
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = CommandEngine.tokenize(line);
+                // only whitespace that trim() leaves, like a no-break space
+                if (tokens.length == 0) {
+                    continue;
+                }
+                if (tokens[0].equals("quit")) {
+                    break;
+                }
+                boolean write = WRITE_OPERATIONS.contains(tokens[0]);
+                try {
+                    if (!write && ConnectionManager.hasBoundTransaction()) {
+                        // a read ends the current group of writes and runs on a connection of its own, so that
+                        // what it does write (e.g. a login rehashing a password) is committed
+                        commitBatch();
+                        if (pendingWrites > 0) {
+                            transactions++;
+                        }
+                        pendingWrites = 0;
+                    }
+                    if (write && transactionSize > 1 && !ConnectionManager.hasBoundTransaction()) {
+                        ConnectionManager.beginBoundTransaction();
+                    }
+                } catch (SQLException e) {
+                    System.out.println("Error occurred when committing batch at line " + lines);
+                    e.printStackTrace();
+                    errors += pendingWrites;
+                    pendingWrites = 0;
+                    abortBatch();
+                }
+
+                commands++;
+                if (!engine.execute(tokens)) {
+                    errors++;
+                    System.out.println("^ line " + lines + ": " + line);
+                    if (ConnectionManager.isBoundTransactionAborted()) {
+                        // a deadlock or lock timeout rolled back the whole transaction, with the writes before it
+                        System.out.println("Transaction aborted by a concurrent one at line " + lines + ", "
+                                + pendingWrites + " earlier write(s) rolled back");
+                        errors += pendingWrites;
+                        pendingWrites = 0;
+                        abortBatch();
+                    }
+                } else if (write && ConnectionManager.hasBoundTransaction()) {
+                    pendingWrites++;
+                }
+
+                if (pendingWrites >= transactionSize) {
+                    try {
+                        commitBatch();
+                        transactions++;
+                    } catch (SQLException e) {
+                        System.out.println("Error occurred when committing batch at line " + lines);
+                        e.printStackTrace();
+                        errors += pendingWrites;
+                        abortBatch();
+                    }
+                    pendingWrites = 0;
+                }
             }
-            if (vaccine == null) {
-                System.out.println("Vaccine does not exist. Please enter an existing vaccine.");
-                vaccineName = getNewInput();
-                continue;
+            if (ConnectionManager.hasBoundTransaction()) {
+                commitBatch();
+                if (pendingWrites > 0) {
+                    transactions++;
+                }
+                pendingWrites = 0;
             }
-            break;
-        }
-        try {
-            Date d = Date.valueOf(date);
-            currentPatient.reserve(d, vaccine);
-            greetings();
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
-        } catch (SQLException e) {
-            System.out.println("Error occurred when creating appointment");
-            e.printStackTrace();
-        }
-    }
-
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
-        }
-        String date = tokens[1];
-        try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
-            greetings();
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
-        } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+        } catch (IOException e) {
+            System.out.println("Error occurred when reading " + file);
             e.printStackTrace();
-        }
-    }
-
-    private static void cancel(String[] tokens) {
-        // TODO: Extra credit
-    }
-
-    private static void addDoses(String[] tokens) {
-        // add_doses <vaccine> <number>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
-        }
-        String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
-        Vaccine vaccine = null;
-        try {
-            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            System.out.println("Error occurred when committing batch");
             e.printStackTrace();
-        }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
-        //          table
-        if (vaccine == null) {
-            try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
-                vaccine.saveToDB();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
-            }
-        } else {
-            // if the vaccine is not null, meaning that the vaccine already exists in our table
-            try {
-                vaccine.increaseAvailableDoses(doses);
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
-            }
-        }
-        System.out.println("Doses updated!");
-        greetings();
-    }
-
-    private static void showAppointments(String[] tokens) {
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first!");
-            return;
-        }
-
-        if(currentPatient == null) {
-            try {
-                System.out.println("Appointments:");
-                currentCaregiver.viewAppointments();
-                greetings();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when showing appointments.");
-                e.printStackTrace();
-            }
-            return;
-        } else if(currentCaregiver == null) {
-            try {
-                System.out.println("Appointments:");
-                currentPatient.viewAppointments();
-                greetings();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when showing appointments.");
-                e.printStackTrace();
+            errors += pendingWrites;
+        } finally {
+            if (ConnectionManager.hasBoundTransaction()) {
+                abortBatch();
             }
-            return;
         }
-    }
 
-    private static void logout(String[] tokens) {
-        currentCaregiver = null;
-        currentPatient = null;
-        System.out.println("*** You are now logged out ***");
-        greetings();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("*** Batch finished ***");
+        System.out.println("Lines read: " + lines + ", commands: " + commands + ", errors: " + errors
+                + ", transactions committed: " + transactions);
+        System.out.printf("Elapsed: %.3f s, throughput: %.1f commands/s%n", seconds,
+                seconds > 0 ? commands / seconds : 0.0);
+        System.out.println("Username checks: " + UsernameRegistry.patients());
+        System.out.println("Username checks: " + UsernameRegistry.caregivers());
+        System.out.println("Connections: " + ConnectionManager.getPool());
+        System.out.println("Availability cache: " + AvailabilityIndex.getInstance());
+        System.out.println("Vaccine cache: " + VaccineCatalog.getInstance());
+        System.out.println("Conflicts: " + TransactionRetry.getInstance());
     }
 
-    private static String createStrongPassword(String password) {
-        Pattern pattern1 =  Pattern.compile("[A-Z]");
-        Pattern pattern2 = Pattern.compile("[a-z]");
-        Pattern pattern3 = Pattern.compile("[0-9]");
-        Pattern pattern4 = Pattern.compile("[!@#?]");
-        Matcher matcher1 = pattern1.matcher(password);
-        Matcher matcher2 = pattern2.matcher(password);
-        Matcher matcher3 = pattern3.matcher(password);
-        Matcher matcher4 = pattern4.matcher(password);
-
-        if (password.length() < 8){
-            System.out.println("Password is too short. It must be have more than 8 characters.");
-            password = createStrongPassword(getNewPassword());
-        } else if (!matcher1.find() || !matcher2.find()) {
-            System.out.println("Password needs to contain both Uppercase and Lowercase characters.");
-            password = createStrongPassword(getNewPassword());
-        } else if (!matcher3.find()) {
-            System.out.println("Password needs to contain number(s).");
-            password = createStrongPassword(getNewPassword());
-        } else if(!matcher4.find()) {
-            System.out.println("Password must contain a special character from “!”, “@”, “#”, “?”.");
-            password = createStrongPassword(getNewPassword());
+    // Commits the batch transaction and returns its connection to the pool, the next write binds another one
+    private static void commitBatch() throws SQLException {
+        if (ConnectionManager.hasBoundTransaction()) {
+            ConnectionManager.commitBoundTransaction();
+            ConnectionManager.endBoundTransaction();
         }
-        return password;
-    }
-
-    private static String getNewPassword() {
-        System.out.println("Please enter a new Password");
-        return getNewInput();
     }
 
-    private static String getNewInput() {
-        BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
-        String input = "";
-        while (true) {
-            System.out.print("> ");
-            try {
-                input = r.readLine();
-            } catch (IOException e) {
-                System.out.println("Please try again!");
-            }
-            // split the user input by spaces
-            String[] tokens = input.split(" ");
-            // check if input exists
-            if (tokens.length != 1) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            break;
-        }
-        return input;
+    // Rolls back the open batch transaction, the in-memory caches may hold writes that never committed
+    private static void abortBatch() {
+        ConnectionManager.endBoundTransaction();
+        AvailabilityIndex.getInstance().invalidateAll();
+        BookingCounter.getInstance().invalidateAll();
+        VaccineCatalog.getInstance().invalidateAll();
     }
 }
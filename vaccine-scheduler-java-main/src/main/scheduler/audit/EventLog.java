@@ -0,0 +1,293 @@
+package scheduler.audit;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Queries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only audit log of who did what, written behind the commands instead of in them.
+ *
+ * record() only puts the event on a bounded queue and never blocks or touches the database. A background appender
+ * takes everything queued (up to batchSize events), appends it to the current segment file in one write, and
+ * fsyncs the segment at most every flushMillis, so one fsync covers every event that arrived in the meantime
+ * (group commit). Segments are events-<millis>.log files in -Dscheduler.events.dir, one tab-separated event per
+ * line, and a new one is started once the current one reaches segmentBytes. With -Dscheduler.events.table=true
+ * every written batch is also inserted into the Events table with one JDBC batch.
+ *
+ * Memory is bounded by the queue (-Dscheduler.events.queueSize, default 8192 events). When it is full, events are
+ * dropped and counted rather than slowing the commands down.
+ *
+ * Loss window: on a crash, the events still in the queue and those written since the last fsync are lost. That is
+ * at most flushMillis (default 200 ms) of events plus a full queue. On a normal exit a shutdown hook writes and
+ * fsyncs everything that is still queued. An Events table flush that fails is not retried; the segment file is the
+ * record.
+ */
+public class EventLog implements Runnable {
+
+    public enum Type {
+        CREATE_PATIENT,
+        CREATE_CAREGIVER,
+        LOGIN_PATIENT,
+        LOGIN_CAREGIVER,
+        LOGIN_FAILED,
+        RESERVE,
+        UPLOAD_AVAILABILITY,
+        ADD_DOSES,
+        CANCEL,
+        IMPORT_ACCOUNTS
+    }
+
+    private static final int queueSize = Integer.getInteger("scheduler.events.queueSize", 8192);
+    private static final int batchSize = Integer.getInteger("scheduler.events.batchSize", 512);
+    private static final long flushMillis = Long.getLong("scheduler.events.flushMillis", 200);
+    private static final long segmentBytes = Long.getLong("scheduler.events.segmentBytes", 64L * 1024 * 1024);
+    private static final String dir = System.getProperty("scheduler.events.dir", "events");
+    private static final boolean toTable = Boolean.getBoolean("scheduler.events.table");
+
+    private static final EventLog instance = new EventLog();
+
+    private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(queueSize);
+    private volatile Thread thread = null;
+    private volatile boolean closing = false;
+
+    // only used by the appender thread
+    private FileChannel segment = null;
+    private long lastForce = 0;
+    private boolean unforced = false;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
+    private final AtomicLong tableFailures = new AtomicLong();
+
+    private EventLog() {
+    }
+
+    public static EventLog getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts the appender, unless -Dscheduler.events.enabled=false. Until then record() does nothing.
+     */
+    public synchronized void start() {
+        if (thread != null || !Boolean.parseBoolean(System.getProperty("scheduler.events.enabled", "true"))) {
+            return;
+        }
+        Thread appender = new Thread(this, "event-log");
+        appender.setDaemon(true);
+        thread = appender;
+        appender.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    // Queues an event, or drops it if the queue is full; inside a bound transaction once that commits
+    public void record(Type type, String actor, String detail) {
+        if (thread == null || closing) {
+            return;
+        }
+        Event event = new Event(System.currentTimeMillis(), type, actor, detail);
+        ConnectionManager.afterCommit(() -> {
+            if (!queue.offer(event)) {
+                dropped.incrementAndGet();
+            }
+        });
+    }
+
+    // Writes and fsyncs everything still queued, then stops the appender
+    public void close() {
+        Thread appender = thread;
+        if (appender == null) {
+            return;
+        }
+        closing = true;
+        try {
+            appender.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        try {
+            while (!closing || !queue.isEmpty()) {
+                Event first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    write(batch);
+                    batch.clear();
+                }
+                // fsync once per flush interval, covering every batch written since the last one
+                if (unforced && System.currentTimeMillis() - lastForce >= flushMillis) {
+                    force();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Error occurred when writing the event log, events are no longer recorded");
+            e.printStackTrace();
+            closing = true;
+        } finally {
+            try {
+                if (segment != null) {
+                    if (unforced) {
+                        force();
+                    }
+                    segment.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void write(List<Event> batch) throws IOException {
+        StringBuilder lines = new StringBuilder(batch.size() * 96);
+        for (Event event : batch) {
+            lines.append(Instant.ofEpochMilli(event.time)).append('\t')
+                    .append(event.type).append('\t')
+                    .append(clean(event.actor)).append('\t')
+                    .append(clean(event.detail)).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        FileChannel channel = segment(bytes.remaining());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        unforced = true;
+        written.addAndGet(batch.size());
+        if (toTable) {
+            insert(batch);
+        }
+    }
+
+    // The segment to append to, starting a new one if the current one would grow past segmentBytes
+    private FileChannel segment(int length) throws IOException {
+        if (segment != null && segment.size() > 0 && segment.size() + length > segmentBytes) {
+            force();
+            segment.close();
+            segment = null;
+        }
+        if (segment == null) {
+            Path directory = Paths.get(dir);
+            Files.createDirectories(directory);
+            Path file = directory.resolve("events-" + System.currentTimeMillis() + ".log");
+            segment = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        return segment;
+    }
+
+    private void force() throws IOException {
+        segment.force(false);
+        unforced = false;
+        lastForce = System.currentTimeMillis();
+        forces.incrementAndGet();
+    }
+
+    private void insert(List<Event> batch) {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String addEvent = Queries.ADD_EVENT;
+        try {
+            cm.beginTransaction();
+            PreparedStatement statement = cm.prepareStatement(addEvent);
+            for (Event event : batch) {
+                statement.setTimestamp(1, new Timestamp(event.time));
+                statement.setString(2, event.type.name());
+                statement.setString(3, event.actor);
+                statement.setString(4, event.detail == null || event.detail.length() <= 1000
+                        ? event.detail : event.detail.substring(0, 1000));
+                statement.addBatch();
+            }
+            cm.executeBatch(statement);
+            cm.commitTransaction();
+        } catch (SQLException e) {
+            tableFailures.incrementAndGet();
+            try {
+                cm.rollbackTransaction();
+            } catch (SQLException ex) {
+                // the connection is rolled back when it goes back to the pool anyway
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Keeps every event on one line with four fields
+    private static String clean(String field) {
+        if (field == null) {
+            return "";
+        }
+        return field.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    // Getters
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getForceCount() {
+        return forces.get();
+    }
+
+    public long getTableFailureCount() {
+        return tableFailures.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "EventLog{" +
+                "written=" + getWrittenCount() +
+                ", dropped=" + getDroppedCount() +
+                ", forces=" + getForceCount() +
+                ", tableFailures=" + getTableFailureCount() +
+                ", queueDepth=" + getQueueDepth() +
+                '}';
+    }
+
+    private static class Event {
+        private final long time;
+        private final Type type;
+        private final String actor;
+        private final String detail;
+
+        private Event(long time, Type type, String actor, String detail) {
+            this.time = time;
+            this.type = type;
+            this.actor = actor;
+            this.detail = detail;
+        }
+    }
+}
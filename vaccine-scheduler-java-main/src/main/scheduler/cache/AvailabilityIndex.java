@@ -0,0 +1,189 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Queries;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process index of caregiver availability by date, so that search_caregiver_schedule can be answered without
+ * touching the database. The vaccine stock it lists is kept by VaccineCatalog.
+ *
+ * Each date is loaded from the database the first time it is looked up, and again once it is older than
+ * -Dscheduler.availability.ttlSeconds (default 30), which bounds how long availability and bookings written by
+ * other processes go unseen. Changes made by this process are written through: the model classes call the update
+ * methods after their own database change has been committed.
+ *
+ * A load runs outside of the map, so it only holds up lookups of its own date, which wait for it. Updates that
+ * come in while it runs are kept with the entry and applied on top of what the query read, so they are never lost
+ * even if the query missed them.
+ */
+public class AvailabilityIndex {
+
+    private static final long ttlNanos = Long.getLong("scheduler.availability.ttlSeconds", 30) * 1_000_000_000L;
+
+    private static final AvailabilityIndex instance = new AvailabilityIndex();
+
+    private final ConcurrentMap<LocalDate, Entry> caregiversByDate = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private AvailabilityIndex() {
+    }
+
+    public static AvailabilityIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the caregivers available on the given date, sorted by username.
+     */
+    public NavigableSet<String> getCaregivers(Date d) throws SQLException {
+        LocalDate date = d.toLocalDate();
+        while (true) {
+            Entry entry = caregiversByDate.get(date);
+            // an entry that is still loading is waited for, however long its load takes
+            if (entry != null && (!entry.loaded.isDone() || isFresh(entry.loadedAt))) {
+                hits.incrementAndGet();
+                return Collections.unmodifiableNavigableSet(entry.await());
+            }
+            Entry loading = new Entry();
+            boolean mine = entry == null ? caregiversByDate.putIfAbsent(date, loading) == null
+                    : caregiversByDate.replace(date, entry, loading);
+            if (mine) {
+                misses.incrementAndGet();
+                load(date, loading);
+                return Collections.unmodifiableNavigableSet(loading.await());
+            }
+            // another lookup started loading the date first
+        }
+    }
+
+    // Called after a caregiver's availability row has been inserted
+    public void addAvailability(Date d, String caregiver) {
+        change(d, caregiver, true);
+    }
+
+    // Called after a caregiver's availability row has been deleted
+    public void removeAvailability(Date d, String caregiver) {
+        change(d, caregiver, false);
+    }
+
+    // Drops a date so that its next lookup reloads it from the database
+    public void invalidate(Date d) {
+        caregiversByDate.remove(d.toLocalDate());
+    }
+
+    // Drops everything, for example after the tables were changed outside of this process
+    public void invalidateAll() {
+        caregiversByDate.clear();
+    }
+
+    private boolean isFresh(long loadedAt) {
+        return System.nanoTime() - loadedAt < ttlNanos;
+    }
+
+    private void change(Date d, String caregiver, boolean available) {
+        Entry entry = caregiversByDate.get(d.toLocalDate());
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.pending != null) {
+                // the load is still running, the last change per caregiver is applied when it is done
+                entry.pending.put(caregiver, available);
+            } else if (available) {
+                entry.caregivers.add(caregiver);
+            } else {
+                entry.caregivers.remove(caregiver);
+            }
+        }
+    }
+
+    private void load(LocalDate date, Entry entry) {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String getSchedule = Queries.GET_AVAILABLE_CAREGIVERS;
+        try {
+            PreparedStatement statement = cm.prepareStatement(getSchedule);
+            statement.setDate(1, Date.valueOf(date));
+            ResultSet rs = cm.executeQuery(statement);
+            while (rs.next()) {
+                entry.caregivers.add(rs.getString(1));
+            }
+        } catch (SQLException | RuntimeException e) {
+            // the next lookup tries again; the lookups waiting for this load fail with it
+            caregiversByDate.remove(date, entry);
+            entry.loaded.completeExceptionally(e);
+            return;
+        } finally {
+            cm.closeConnection();
+        }
+        synchronized (entry) {
+            for (Map.Entry<String, Boolean> change : entry.pending.entrySet()) {
+                if (change.getValue()) {
+                    entry.caregivers.add(change.getKey());
+                } else {
+                    entry.caregivers.remove(change.getKey());
+                }
+            }
+            entry.pending = null;
+        }
+        entry.loaded.complete(entry.caregivers);
+    }
+
+    // Getters
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AvailabilityIndex{" +
+                "dates=" + caregiversByDate.size() +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                '}';
+    }
+
+    private static class Entry {
+        // when the load's query was started
+        private final long loadedAt = System.nanoTime();
+        private final NavigableSet<String> caregivers = new ConcurrentSkipListSet<>();
+        // completed with caregivers once the load is done and pending has been applied
+        private final CompletableFuture<NavigableSet<String>> loaded = new CompletableFuture<>();
+        // changes that came in while the load was running, null once it is done; guarded by the entry
+        private Map<String, Boolean> pending = new HashMap<>();
+
+        private NavigableSet<String> await() throws SQLException {
+            try {
+                return loaded.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new SQLException(e.getCause());
+            }
+        }
+    }
+}
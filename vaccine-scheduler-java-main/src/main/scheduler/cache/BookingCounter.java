@@ -0,0 +1,177 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Queries;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-process count of appointments per caregiver and date, used to pick the least booked caregiver without an
+ * aggregate query on every reservation.
+ *
+ * Like AvailabilityIndex, a date is loaded from the database the first time it is asked for, and again once it is
+ * older than -Dscheduler.availability.ttlSeconds (default 30). In between it is kept up to date by the model classes
+ * after their own changes have been committed. A load runs outside of the map, and bookings added or removed while
+ * it runs are applied on top of what its query read.
+ */
+public class BookingCounter {
+
+    private static final long ttlNanos = Long.getLong("scheduler.availability.ttlSeconds", 30) * 1_000_000_000L;
+
+    private static final BookingCounter instance = new BookingCounter();
+
+    private final ConcurrentMap<LocalDate, Entry> bookingsByDate = new ConcurrentHashMap<>();
+
+    private BookingCounter() {
+    }
+
+    public static BookingCounter getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the number of appointments of every caregiver that has any on the given date, loading the date from
+     * the database if it isn't known yet or has expired.
+     */
+    public Map<String, Integer> getBookings(Date d) throws SQLException {
+        LocalDate date = d.toLocalDate();
+        while (true) {
+            Entry entry = bookingsByDate.get(date);
+            // an entry that is still loading is waited for, however long its load takes
+            if (entry != null && (!entry.loaded.isDone() || isFresh(entry.loadedAt))) {
+                return Collections.unmodifiableMap(entry.await());
+            }
+            Entry loading = new Entry();
+            boolean mine = entry == null ? bookingsByDate.putIfAbsent(date, loading) == null
+                    : bookingsByDate.replace(date, entry, loading);
+            if (mine) {
+                load(date, loading);
+                return Collections.unmodifiableMap(loading.await());
+            }
+            // another lookup started loading the date first
+        }
+    }
+
+    /**
+     * Returns the bookings of the given date if they are loaded already, and an empty map otherwise. Never
+     * touches the database or waits for a load, so it is safe to call while holding a connection.
+     */
+    public Map<String, Integer> peekBookings(Date d) {
+        Entry entry = bookingsByDate.get(d.toLocalDate());
+        if (entry == null || !entry.loaded.isDone() || entry.loaded.isCompletedExceptionally()) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(entry.bookings);
+    }
+
+    // Called after an appointment has been inserted
+    public void addBooking(Date d, String caregiver) {
+        change(d, caregiver, 1);
+    }
+
+    // Called after an appointment has been deleted
+    public void removeBooking(Date d, String caregiver) {
+        change(d, caregiver, -1);
+    }
+
+    // Drops everything, for example after the tables were changed outside of this process
+    public void invalidateAll() {
+        bookingsByDate.clear();
+    }
+
+    private boolean isFresh(long loadedAt) {
+        return System.nanoTime() - loadedAt < ttlNanos;
+    }
+
+    private void change(Date d, String caregiver, int delta) {
+        Entry entry = bookingsByDate.get(d.toLocalDate());
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.pending != null) {
+                // the load is still running, the changes per caregiver add up and are applied when it is done
+                entry.pending.merge(caregiver, delta, Integer::sum);
+            } else {
+                apply(entry.bookings, caregiver, delta);
+            }
+        }
+    }
+
+    // Adds delta to the caregiver's count, only caregivers with appointments are kept
+    private static void apply(Map<String, Integer> bookings, String caregiver, int delta) {
+        bookings.compute(caregiver, (name, count) -> {
+            int booked = (count == null ? 0 : count) + delta;
+            return booked > 0 ? booked : null;
+        });
+    }
+
+    private void load(LocalDate date, Entry entry) {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String getBookings = Queries.GET_BOOKINGS;
+        try {
+            PreparedStatement statement = cm.prepareStatement(getBookings);
+            statement.setDate(1, Date.valueOf(date));
+            ResultSet rs = cm.executeQuery(statement);
+            while (rs.next()) {
+                entry.bookings.put(rs.getString(1), rs.getInt(2));
+            }
+        } catch (SQLException | RuntimeException e) {
+            // the next lookup tries again; the lookups waiting for this load fail with it
+            bookingsByDate.remove(date, entry);
+            entry.loaded.completeExceptionally(e);
+            return;
+        } finally {
+            cm.closeConnection();
+        }
+        synchronized (entry) {
+            for (Map.Entry<String, Integer> change : entry.pending.entrySet()) {
+                apply(entry.bookings, change.getKey(), change.getValue());
+            }
+            entry.pending = null;
+        }
+        entry.loaded.complete(entry.bookings);
+    }
+
+    @Override
+    public String toString() {
+        return "BookingCounter{" +
+                "dates=" + bookingsByDate.size() +
+                '}';
+    }
+
+    private static class Entry {
+        // when the load's query was started
+        private final long loadedAt = System.nanoTime();
+        private final ConcurrentMap<String, Integer> bookings = new ConcurrentHashMap<>();
+        // completed with bookings once the load is done and pending has been applied
+        private final CompletableFuture<Map<String, Integer>> loaded = new CompletableFuture<>();
+        // the sum of the changes per caregiver that came in while the load was running, null once it is done;
+        // guarded by the entry
+        private Map<String, Integer> pending = new HashMap<>();
+
+        private Map<String, Integer> await() throws SQLException {
+            try {
+                return loaded.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new SQLException(e.getCause());
+            }
+        }
+    }
+}
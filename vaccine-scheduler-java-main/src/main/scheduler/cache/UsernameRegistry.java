@@ -0,0 +1,260 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Queries;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process bloom filter of the usernames in the Patients or Caregivers table, so that creating an account only
+ * queries the table when the name might be taken.
+ *
+ * The filter is loaded with every username the first time it is used (Scheduler loads both at startup), sized for
+ * twice the names there are or -Dscheduler.usernames.expected (default 100000), whichever is larger, at a
+ * false-positive rate of -Dscheduler.usernames.falsePositiveRate (default 0.01). Once more names have been added
+ * than it was sized for, the next check reloads it at the new size.
+ *
+ * The filter is only a shortcut: the primary key on Username decides whether a name is taken, and saveToDB()
+ * reports a duplicate as SQLIntegrityConstraintViolationException. So a name that was added by a batch
+ * transaction that was then rolled back only costs a confirming query, and a name added by another process since
+ * the load only costs a failed insert. Names are stored lowercased, since the database may compare them
+ * case-insensitively.
+ */
+public class UsernameRegistry {
+
+    private static final long expectedNames = Long.getLong("scheduler.usernames.expected", 100_000);
+    private static final double falsePositiveRate =
+            Double.parseDouble(System.getProperty("scheduler.usernames.falsePositiveRate", "0.01"));
+
+    private static final UsernameRegistry patients = new UsernameRegistry("Patients");
+    private static final UsernameRegistry caregivers = new UsernameRegistry("Caregivers");
+
+    private final String table;
+    private final Object loadLock = new Object();
+    private volatile Filter filter = null;
+
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong filteredOut = new AtomicLong();
+    private final AtomicLong confirmed = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    private UsernameRegistry(String table) {
+        this.table = table;
+    }
+
+    public static UsernameRegistry patients() {
+        return patients;
+    }
+
+    public static UsernameRegistry caregivers() {
+        return caregivers;
+    }
+
+    /**
+     * Returns true if the username is taken. False means it wasn't when the filter was loaded and hasn't been
+     * added by this process since; the insert is still checked by the primary key.
+     */
+    public boolean exists(String username) throws SQLException {
+        checks.incrementAndGet();
+        if (!getFilter().mightContain(key(username))) {
+            filteredOut.incrementAndGet();
+            return false;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String selectUsername = Queries.usernameExists(table);
+        try {
+            PreparedStatement statement = cm.prepareStatement(selectUsername);
+            statement.setString(1, username);
+            ResultSet resultSet = cm.executeQuery(statement);
+            if (resultSet.next()) {
+                confirmed.incrementAndGet();
+                return true;
+            }
+            falsePositives.incrementAndGet();
+            return false;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Called after a username has been inserted
+    public void add(String username) {
+        Filter current = filter;
+        if (current != null) {
+            current.put(key(username));
+        }
+    }
+
+    /**
+     * Loads the filter from the table, replacing the current one.
+     */
+    public void load() throws SQLException {
+        synchronized (loadLock) {
+            filter = loadFilter();
+        }
+    }
+
+    private Filter getFilter() throws SQLException {
+        Filter current = filter;
+        if (current != null && current.size() <= current.capacity) {
+            return current;
+        }
+        synchronized (loadLock) {
+            if (filter == current) {
+                filter = loadFilter();
+            }
+            return filter;
+        }
+    }
+
+    private Filter loadFilter() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String countUsernames = Queries.countUsernames(table);
+        String getUsernames = Queries.getUsernames(table);
+        try {
+            ResultSet count = cm.executeQuery(cm.prepareStatement(countUsernames));
+            count.next();
+            Filter loaded = new Filter(Math.max(expectedNames, 2L * count.getLong(1)), falsePositiveRate);
+            PreparedStatement statement = cm.prepareStatement(getUsernames);
+            statement.setFetchSize(10_000);
+            ResultSet rs = cm.executeQuery(statement);
+            while (rs.next()) {
+                loaded.put(key(rs.getString(1)));
+            }
+            return loaded;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    // Getters
+    public long getCheckCount() {
+        return checks.get();
+    }
+
+    public long getFilteredOutCount() {
+        return filteredOut.get();
+    }
+
+    public long getConfirmedCount() {
+        return confirmed.get();
+    }
+
+    public long getFalsePositiveCount() {
+        return falsePositives.get();
+    }
+
+    // The share of free names that the filter did not rule out, so that they cost a query anyway
+    public double getObservedFalsePositiveRate() {
+        long free = filteredOut.get() + falsePositives.get();
+        return free == 0 ? 0.0 : (double) falsePositives.get() / free;
+    }
+
+    // The false-positive rate the filter should have with the names it holds now
+    public double getExpectedFalsePositiveRate() {
+        Filter current = filter;
+        return current == null ? 0.0 : current.expectedFalsePositiveRate();
+    }
+
+    @Override
+    public String toString() {
+        Filter current = filter;
+        return "UsernameRegistry{" +
+                "table=" + table +
+                ", names=" + (current == null ? 0 : current.size()) +
+                ", checks=" + getCheckCount() +
+                ", filteredOut=" + getFilteredOutCount() +
+                ", confirmed=" + getConfirmedCount() +
+                ", falsePositives=" + getFalsePositiveCount() +
+                String.format(", observedFalsePositiveRate=%.4f", getObservedFalsePositiveRate()) +
+                String.format(", expectedFalsePositiveRate=%.4f", getExpectedFalsePositiveRate()) +
+                '}';
+    }
+
+    private static class Filter {
+        private final long capacity;
+        private final long bitCount;
+        private final int hashCount;
+        private final AtomicLongArray bits;
+        private final AtomicLong added = new AtomicLong();
+
+        private Filter(long capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            double ln2 = Math.log(2);
+            long wanted = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+            // whole words, and at most what an int can index
+            this.bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (wanted + 63) / 64)));
+            this.bitCount = 64L * bits.length();
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * ln2));
+        }
+
+        private void put(String key) {
+            long hash = hash(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current;
+                do {
+                    current = bits.get(word);
+                } while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+            }
+            added.incrementAndGet();
+        }
+
+        private boolean mightContain(String key) {
+            long hash = hash(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long size() {
+            return added.get();
+        }
+
+        private double expectedFalsePositiveRate() {
+            return Math.pow(1 - Math.exp(-(double) hashCount * size() / bitCount), hashCount);
+        }
+
+        // 64-bit FNV-1a over the characters, finished with the MurmurHash3 mixer so both halves are usable
+        private static long hash(String key) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                hash ^= key.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Queries;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of the Vaccines table: the doses left of every vaccine that has been looked up, and the names
+ * that were looked up but don't exist (so a typo in reserve doesn't cost a query every time).
+ *
+ * Entries expire after -Dscheduler.vaccines.ttlSeconds (default 30), which bounds how long changes made by other
+ * processes go unseen. Changes made by this process are written through: the model classes pass on the dose count
+ * the database returned after their change was committed, and a vaccine that was just inserted replaces its
+ * negative entry.
+ *
+ * Loads don't hold any lock across their query. Instead every entry remembers when it was written, and a load only
+ * replaces entries that are older than its own query, so it can never undo a write-through that happened while it
+ * was running.
+ */
+public class VaccineCatalog {
+
+    private static final long ttlNanos = Long.getLong("scheduler.vaccines.ttlSeconds", 30) * 1_000_000_000L;
+
+    private static final VaccineCatalog instance = new VaccineCatalog();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // when every vaccine was last loaded, so that getStock() can be answered from the entries
+    private volatile long stockLoadedAt = 0;
+    private volatile boolean stockLoaded = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private VaccineCatalog() {
+    }
+
+    public static VaccineCatalog getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the doses left of the given vaccine, or null if it doesn't exist.
+     */
+    public Integer getDoses(String vaccineName) throws SQLException {
+        Entry entry = entries.get(vaccineName);
+        if (entry != null && isFresh(entry.loadedAt)) {
+            if (entry.doses == null) {
+                negativeHits.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return entry.doses;
+        }
+        misses.incrementAndGet();
+        return loadVaccine(vaccineName);
+    }
+
+    /**
+     * Returns the doses left of the given vaccine if a fresh entry for it is cached, and null otherwise. Never
+     * touches the database, so it is safe to call while holding a connection.
+     */
+    public Integer peekDoses(String vaccineName) {
+        Entry entry = entries.get(vaccineName);
+        return entry != null && isFresh(entry.loadedAt) ? entry.doses : null;
+    }
+
+    /**
+     * Returns the doses left of every vaccine, sorted by vaccine name.
+     */
+    public SortedMap<String, Integer> getStock() throws SQLException {
+        if (stockLoaded && isFresh(stockLoadedAt)) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            loadStock();
+        }
+        SortedMap<String, Integer> stock = new TreeMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().doses != null) {
+                stock.put(entry.getKey(), entry.getValue().doses);
+            }
+        }
+        return Collections.unmodifiableSortedMap(stock);
+    }
+
+    // Called after a vaccine has been inserted
+    public void addVaccine(String vaccineName, int doses) {
+        entries.put(vaccineName, new Entry(doses, System.nanoTime()));
+    }
+
+    // Called with the dose count the database returned for a vaccine after a committed change
+    public void updateDoses(String vaccineName, int doses) {
+        // only known names are updated, the name may differ in case from the one the vaccine was stored with
+        entries.computeIfPresent(vaccineName, (name, entry) -> new Entry(doses, System.nanoTime()));
+    }
+
+    // Drops everything, for example after the table was changed outside of this process
+    public void invalidateAll() {
+        stockLoaded = false;
+        entries.clear();
+    }
+
+    private boolean isFresh(long loadedAt) {
+        return System.nanoTime() - loadedAt < ttlNanos;
+    }
+
+    // Stores what a load read, unless the entry was written after the load's query started
+    private void install(String vaccineName, Integer doses, long loadedAt) {
+        entries.merge(vaccineName, new Entry(doses, loadedAt),
+                (current, loaded) -> current.loadedAt - loaded.loadedAt >= 0 ? current : loaded);
+    }
+
+    private Integer loadVaccine(String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String getVaccine = Queries.GET_VACCINE;
+        try {
+            long loadedAt = System.nanoTime();
+            PreparedStatement statement = cm.prepareStatement(getVaccine);
+            statement.setString(1, vaccineName);
+            ResultSet resultSet = cm.executeQuery(statement);
+            if (!resultSet.next()) {
+                install(vaccineName, null, loadedAt);
+                return null;
+            }
+            int doses = resultSet.getInt(2);
+            // a name that only matches in another case isn't cached, it would show up twice in the stock
+            if (vaccineName.equals(resultSet.getString(1))) {
+                install(vaccineName, doses, loadedAt);
+            }
+            return doses;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void loadStock() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String getVaccineInfo = Queries.GET_VACCINES;
+        try {
+            long loadedAt = System.nanoTime();
+            PreparedStatement statement = cm.prepareStatement(getVaccineInfo);
+            ResultSet rs = cm.executeQuery(statement);
+            Set<String> names = new HashSet<>();
+            while (rs.next()) {
+                names.add(rs.getString(1));
+                install(rs.getString(1), rs.getInt(2), loadedAt);
+            }
+            // vaccines deleted outside of this process
+            entries.entrySet().removeIf(entry -> entry.getValue().doses != null
+                    && !names.contains(entry.getKey()) && entry.getValue().loadedAt - loadedAt < 0);
+            stockLoadedAt = loadedAt;
+            stockLoaded = true;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Getters
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getNegativeHitCount() {
+        return negativeHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "VaccineCatalog{" +
+                "vaccines=" + entries.size() +
+                ", hits=" + getHitCount() +
+                ", negativeHits=" + getNegativeHitCount() +
+                ", misses=" + getMissCount() +
+                '}';
+    }
+
+    private static class Entry {
+        // null if the vaccine doesn't exist
+        private final Integer doses;
+        private final long loadedAt;
+
+        private Entry(Integer doses, long loadedAt) {
+            this.doses = doses;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -1,41 +1,317 @@
 package scheduler.db;
 
+import scheduler.metrics.Metrics;
+import scheduler.metrics.Timer;
+
+import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    // -Dscheduler.db.profile picks the defaults below: "sqlserver" is the Azure SQL Server database from the
+    // environment, "embedded" an in-process H2 database in MSSQLServer mode, in memory or in the files at
+    // -Dscheduler.db.embedded.path. Either can be overridden with -Dscheduler.db.<name>=<value>.
+    private static final String profile = System.getProperty("scheduler.db.profile", "sqlserver");
+    private static final boolean embedded = profile.equals("embedded");
+    private static final String embeddedPath = System.getProperty("scheduler.db.embedded.path");
 
-    private Connection con = null;
+    private static final String driverName = System.getProperty("scheduler.db.driver",
+            embedded ? "org.h2.Driver" : "com.microsoft.sqlserver.jdbc.SQLServerDriver");
+    private static final String connectionUrl = System.getProperty("scheduler.db.url", embedded
+            ? embeddedUrl()
+            : "jdbc:sqlserver://" + System.getenv("Server") +
+            ".database.windows.net:1433;database=" + System.getenv("DBName"));
+    private static final String userName = System.getProperty("scheduler.db.user",
+            embedded ? "sa" : System.getenv("UserID"));
+    private static final String userPass = System.getProperty("scheduler.db.password",
+            embedded ? "" : System.getenv("Password"));
+    private static final Dialect dialect = Dialect.fromUrl(connectionUrl);
 
-    public ConnectionManager() {
+    // pool settings, can be overridden with -Dscheduler.pool.<name>=<value>
+    private static final int poolMaxSize = Integer.getInteger("scheduler.pool.maxSize", 10);
+    private static final long poolAcquireTimeoutMillis = Long.getLong("scheduler.pool.acquireTimeoutMillis", 30000);
+    private static final long poolValidationIdleMillis = Long.getLong("scheduler.pool.validationIdleMillis", 5000);
+    private static final int poolValidationTimeoutSeconds = Integer.getInteger("scheduler.pool.validationTimeoutSeconds", 5);
+    private static final int poolStatementCacheSize = Integer.getInteger("scheduler.pool.statementCacheSize", 64);
+
+    private static final Timer acquireTimer = Metrics.getInstance().timer("connection.acquire");
+    private static final Timer executeTimer = Metrics.getInstance().timer("sql.execute");
+
+    // every ConnectionManager borrows from the same process-wide pool, so a connection is only set up once
+    private static final ConnectionPool pool;
+
+    // a connection bound to the current thread by beginBoundTransaction(), shared by every ConnectionManager
+    // on that thread until endBoundTransaction()
+    private static final ThreadLocal<Connection> boundConnection = new ThreadLocal<>();
+    // set when a statement on the bound connection was aborted because of a concurrent transaction, which rolls
+    // back the whole bound transaction on SQL Server
+    private static final ThreadLocal<Boolean> boundAborted = ThreadLocal.withInitial(() -> false);
+    // actions waiting for the bound transaction to commit, see afterCommit()
+    private static final ThreadLocal<List<Runnable>> boundAfterCommit = ThreadLocal.withInitial(ArrayList::new);
+
+    static {
+        if (!embedded && !profile.equals("sqlserver")) {
+            System.out.println("Unknown database profile " + profile + ", using sqlserver");
+        }
         try {
             Class.forName(driverName);
         } catch (ClassNotFoundException e) {
             System.out.println(e.toString());
         }
+        pool = new ConnectionPool(connectionUrl, userName, userPass, poolMaxSize, poolAcquireTimeoutMillis,
+                poolValidationIdleMillis, poolValidationTimeoutSeconds, poolStatementCacheSize);
+        Runtime.getRuntime().addShutdownHook(new Thread(pool::close));
+    }
+
+    // the file database is opened with AUTO_SERVER, so that several scheduler processes can share it, and compares
+    // strings case-insensitively like SQL Server's default collation
+    private static String embeddedUrl() {
+        if (embeddedPath == null || embeddedPath.isEmpty()) {
+            return "jdbc:h2:mem:scheduler;MODE=MSSQLServer;IGNORECASE=TRUE;DB_CLOSE_DELAY=-1";
+        }
+        return "jdbc:h2:file:" + Paths.get(embeddedPath).toAbsolutePath()
+                + ";MODE=MSSQLServer;IGNORECASE=TRUE;AUTO_SERVER=TRUE";
+    }
+
+    private Connection con = null;
+    private boolean inTransaction = false;
+    // set when beginTransaction() had to nest inside a transaction that was already open
+    private Savepoint savepoint = null;
+    // statements handed out since createConnection(), closeConnection() gives them back to the statement cache
+    private final List<PreparedStatement> statements = new ArrayList<>();
+
+    public ConnectionManager() {
     }
 
     public Connection createConnection() {
+        Connection bound = boundConnection.get();
+        if (bound != null) {
+            con = bound;
+            return con;
+        }
+        long start = System.nanoTime();
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            con = pool.acquire();
         } catch (SQLException e) {
             e.printStackTrace();
+        } finally {
+            acquireTimer.recordSince(start, con != null);
         }
         return con;
     }
 
+    /**
+     * Prepares the SQL on this manager's connection, reusing the connection's cached statement when there is one.
+     * The statement and its result sets stay valid until closeConnection(), which closes the result sets; callers
+     * must not close the statement themselves, and run it with executeQuery(), executeUpdate() or executeBatch()
+     * below so that it is timed.
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return prepareStatement(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        PreparedStatement statement = pool.prepareStatement(con, sql, autoGeneratedKeys);
+        statements.add(statement);
+        return statement;
+    }
+
+    // Runs the statement, timed as sql.execute
+    public ResultSet executeQuery(PreparedStatement statement) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            ResultSet resultSet = statement.executeQuery();
+            ok = true;
+            return resultSet;
+        } catch (SQLException e) {
+            noteConflict(e);
+            throw e;
+        } finally {
+            executeTimer.recordSince(start, ok);
+        }
+    }
+
+    // Runs the statement, timed as sql.execute
+    public int executeUpdate(PreparedStatement statement) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            int count = statement.executeUpdate();
+            ok = true;
+            return count;
+        } catch (SQLException e) {
+            noteConflict(e);
+            throw e;
+        } finally {
+            executeTimer.recordSince(start, ok);
+        }
+    }
+
+    // Runs the statement's batch, timed as one sql.execute
+    public int[] executeBatch(PreparedStatement statement) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            int[] counts = statement.executeBatch();
+            ok = true;
+            return counts;
+        } catch (SQLException e) {
+            noteConflict(e);
+            throw e;
+        } finally {
+            executeTimer.recordSince(start, ok);
+        }
+    }
+
     public void closeConnection() {
+        for (PreparedStatement statement : statements) {
+            pool.releaseStatement(this.con, statement);
+        }
+        statements.clear();
+        // a bound connection stays with its thread, any other goes back to the pool instead of being closed
+        if (this.con != boundConnection.get()) {
+            pool.release(this.con);
+        }
+        this.con = null;
+        this.inTransaction = false;
+        this.savepoint = null;
+    }
+
+    /**
+     * Starts a transaction on this manager's connection. If the connection is already inside a transaction
+     * (a bound transaction), a savepoint is used instead, so that commitTransaction() and rollbackTransaction()
+     * only affect the work done since this call.
+     */
+    public void beginTransaction() throws SQLException {
+        if (con.getAutoCommit()) {
+            con.setAutoCommit(false);
+            savepoint = null;
+        } else {
+            savepoint = con.setSavepoint();
+        }
+        inTransaction = true;
+    }
+
+    public void commitTransaction() throws SQLException {
+        if (!inTransaction) {
+            return;
+        }
+        if (savepoint == null) {
+            con.commit();
+            con.setAutoCommit(true);
+        }
+        // a savepoint's work is committed later by the enclosing transaction
+        inTransaction = false;
+        savepoint = null;
+    }
+
+    // Does nothing if there is no transaction left to roll back, so it is safe to call from an error path
+    public void rollbackTransaction() throws SQLException {
+        if (!inTransaction) {
+            return;
+        }
+        if (savepoint == null) {
+            con.rollback();
+            con.setAutoCommit(true);
+        } else {
+            con.rollback(savepoint);
+        }
+        inTransaction = false;
+        savepoint = null;
+    }
+
+    /**
+     * Binds a pooled connection to the current thread and opens a transaction on it. Until endBoundTransaction()
+     * every ConnectionManager created on this thread works inside that transaction, which lets callers group
+     * several commands into one commit.
+     */
+    public static void beginBoundTransaction() throws SQLException {
+        if (boundConnection.get() != null) {
+            throw new IllegalStateException("A transaction is already bound to this thread!");
+        }
+        Connection bound = pool.acquire();
         try {
-            this.con.close();
+            bound.setAutoCommit(false);
         } catch (SQLException e) {
-            e.printStackTrace();
+            pool.release(bound);
+            throw e;
+        }
+        boundConnection.set(bound);
+        boundAborted.set(false);
+    }
+
+    private void noteConflict(SQLException e) {
+        if (con != null && con == boundConnection.get() && TransactionRetry.isConflict(e)) {
+            boundAborted.set(true);
         }
     }
+
+    /**
+     * Returns true if a statement of the bound transaction was aborted because of a concurrent transaction since it
+     * began or last committed. The database has rolled back the work done so far, so the transaction can only be
+     * ended; what it committed before is safe.
+     */
+    public static boolean isBoundTransactionAborted() {
+        return boundAborted.get();
+    }
+
+    public static boolean hasBoundTransaction() {
+        return boundConnection.get() != null;
+    }
+
+    /**
+     * Runs the action once what the current thread has written is committed: right away outside of a bound
+     * transaction, where commitTransaction() has committed already, and after commitBoundTransaction() inside one,
+     * where it has only released a savepoint. Callers use it to update caches and write events, which must not
+     * see writes that a rollback of the bound transaction undoes; the actions are dropped in that case.
+     */
+    public static void afterCommit(Runnable action) {
+        if (boundConnection.get() == null) {
+            action.run();
+        } else {
+            boundAfterCommit.get().add(action);
+        }
+    }
+
+    // Commits the bound transaction and runs the afterCommit() actions, the connection stays bound for the next one
+    public static void commitBoundTransaction() throws SQLException {
+        boundConnection.get().commit();
+        boundAborted.set(false);
+        List<Runnable> actions = new ArrayList<>(boundAfterCommit.get());
+        boundAfterCommit.get().clear();
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    public static void rollbackBoundTransaction() throws SQLException {
+        boundAfterCommit.get().clear();
+        boundConnection.get().rollback();
+        boundAborted.set(false);
+    }
+
+    // Rolls back anything uncommitted, with its afterCommit() actions, and returns the bound connection to the pool
+    public static void endBoundTransaction() {
+        Connection bound = boundConnection.get();
+        boundConnection.remove();
+        boundAborted.remove();
+        boundAfterCommit.remove();
+        pool.release(bound);
+    }
+
+    public static Dialect getDialect() {
+        return dialect;
+    }
+
+    public static ConnectionPool getPool() {
+        return pool;
+    }
 }
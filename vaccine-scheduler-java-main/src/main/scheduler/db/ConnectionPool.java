@@ -0,0 +1,279 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small bounded pool of JDBC connections.
+ *
+ * At most maxSize connections are handed out at the same time. Released connections are kept idle and reused
+ * (most recently used first), and a connection that has been idle for longer than validationIdleMillis is checked
+ * with Connection.isValid() before it is handed out again.
+ *
+ * Every connection also keeps a StatementCache of up to statementCacheSize prepared statements, which lives as long
+ * as the connection and is closed with it.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long validationIdleMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    // one permit per connection that may be borrowed at the same time
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    private volatile boolean closed = false;
+    private final ConcurrentMap<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+
+    // counters
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, int maxSize, long acquireTimeoutMillis,
+                          long validationIdleMillis, int validationTimeoutSeconds, int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive!");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.validationIdleMillis = validationIdleMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrows a connection, reusing an idle one when possible. Waits up to acquireTimeoutMillis when all
+     * connections are in use.
+     */
+    public Connection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        if (!permits.tryAcquire()) {
+            waited.incrementAndGet();
+            try {
+                if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    timedOut.incrementAndGet();
+                    throw new SQLException("Timed out after " + acquireTimeoutMillis
+                            + " ms waiting for a database connection");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection");
+            }
+        }
+        try {
+            IdleConnection candidate;
+            while ((candidate = pollIdle()) != null) {
+                if (isUsable(candidate)) {
+                    borrowed.incrementAndGet();
+                    return candidate.connection;
+                }
+                discard(candidate.connection);
+            }
+            Connection con = DriverManager.getConnection(url, user, password);
+            created.incrementAndGet();
+            borrowed.incrementAndGet();
+            return con;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool. Any open transaction is rolled back first so the next borrower
+     * always starts in auto-commit mode.
+     */
+    public void release(Connection con) {
+        if (con == null) {
+            return;
+        }
+        try {
+            if (closed || con.isClosed()) {
+                discard(con);
+                return;
+            }
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            synchronized (idle) {
+                idle.addFirst(new IdleConnection(con, System.currentTimeMillis()));
+            }
+        } catch (SQLException e) {
+            discard(con);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns a prepared statement for the SQL on a borrowed connection, from the connection's statement cache if it
+     * was prepared on it before. The statement must be given back with releaseStatement() and never be closed by
+     * the caller.
+     */
+    public PreparedStatement prepareStatement(Connection con, String sql, int autoGeneratedKeys) throws SQLException {
+        StatementCache cache = statementCaches.computeIfAbsent(con, c -> new StatementCache(c, statementCacheSize,
+                statementHits, statementMisses, statementEvictions));
+        return cache.prepare(sql, autoGeneratedKeys);
+    }
+
+    // Closes the statement's result set and clears it for the next use
+    public void releaseStatement(Connection con, PreparedStatement statement) {
+        StatementCache cache = statementCaches.get(con);
+        if (cache != null) {
+            cache.release(statement);
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections that are still borrowed are closed when they are released.
+     */
+    public void close() {
+        closed = true;
+        IdleConnection candidate;
+        while ((candidate = pollIdle()) != null) {
+            discard(candidate.connection);
+        }
+    }
+
+    private IdleConnection pollIdle() {
+        synchronized (idle) {
+            return idle.pollFirst();
+        }
+    }
+
+    private boolean isUsable(IdleConnection candidate) {
+        try {
+            if (candidate.connection.isClosed()) {
+                return false;
+            }
+            // only pay for a validation round trip when the connection has been sitting idle for a while
+            if (System.currentTimeMillis() - candidate.idleSince < validationIdleMillis) {
+                return true;
+            }
+            return candidate.connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(Connection con) {
+        discarded.incrementAndGet();
+        StatementCache cache = statementCaches.remove(con);
+        if (cache != null) {
+            cache.close();
+        }
+        try {
+            con.close();
+        } catch (SQLException e) {
+            // the connection is unusable either way
+        }
+    }
+
+    // Getters
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public long getBorrowedCount() {
+        return borrowed.get();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getWaitedCount() {
+        return waited.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    public long getStatementHitCount() {
+        return statementHits.get();
+    }
+
+    public long getStatementMissCount() {
+        return statementMisses.get();
+    }
+
+    public long getStatementEvictionCount() {
+        return statementEvictions.get();
+    }
+
+    // the share of prepareStatement() calls that reused a statement
+    public double getStatementHitRate() {
+        long total = statementHits.get() + statementMisses.get();
+        return total == 0 ? 0.0 : (double) statementHits.get() / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "maxSize=" + maxSize +
+                ", active=" + getActiveCount() +
+                ", idle=" + getIdleCount() +
+                ", borrowed=" + getBorrowedCount() +
+                ", created=" + getCreatedCount() +
+                ", waited=" + getWaitedCount() +
+                ", timedOut=" + getTimedOutCount() +
+                ", discarded=" + getDiscardedCount() +
+                ", statementHits=" + getStatementHitCount() +
+                ", statementMisses=" + getStatementMissCount() +
+                ", statementEvictions=" + getStatementEvictionCount() +
+                String.format(", statementHitRate=%.3f", getStatementHitRate()) +
+                '}';
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long idleSince;
+
+        private IdleConnection(Connection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+}
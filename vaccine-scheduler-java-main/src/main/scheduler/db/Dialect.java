@@ -0,0 +1,33 @@
+package scheduler.db;
+
+/**
+ * The SQL flavour of the database behind ConnectionManager. SQL Server is what the scheduler is deployed on; H2
+ * (in MSSQLServer mode) is the embedded stand-in used for benchmarks. They only differ in the few places
+ * handled here.
+ */
+public enum Dialect {
+    SQLSERVER,
+    H2;
+
+    public static Dialect fromUrl(String url) {
+        return url.startsWith("jdbc:h2:") ? H2 : SQLSERVER;
+    }
+
+    /**
+     * Builds an UPDATE or MERGE that also returns the given columns of every changed row, so the new values come
+     * back in the same round trip. SQL Server puts an OUTPUT clause between change and rest, H2 selects from the
+     * FINAL TABLE of the whole statement.
+     *
+     * e.g. returning("UPDATE Vaccines SET Doses = Doses + ?", "Doses", "WHERE Name = ?")
+     */
+    public String returning(String change, String columns, String rest) {
+        if (this == H2) {
+            return "SELECT " + columns + " FROM FINAL TABLE (" + change + " " + rest + "); ";
+        }
+        StringBuilder output = new StringBuilder();
+        for (String column : columns.split(",")) {
+            output.append(output.length() == 0 ? "INSERTED." : ", INSERTED.").append(column.trim());
+        }
+        return change + " OUTPUT " + output + " " + rest + "; ";
+    }
+}
@@ -0,0 +1,118 @@
+package scheduler.db;
+
+/**
+ * The SQL of every statement the scheduler runs against its tables, shared by the model and cache classes that run
+ * it and by scheduler.bench.QueryPlanCheck, which checks the plan of each of them. A new statement goes here too:
+ * the check fails for a member of this class that it neither checks nor lists as not checked on purpose.
+ *
+ * Statements that depend on the database or on the table they run against are built by methods.
+ */
+public final class Queries {
+
+    private Queries() {
+    }
+
+    // accounts; the plain inserts throw on a taken username, the rehash only replaces the hash that was verified
+    public static final String ADD_PATIENT = "INSERT INTO Patients VALUES (? , ?, ?); ";
+    public static final String ADD_CAREGIVER = "INSERT INTO Caregivers VALUES (? , ?, ?); ";
+    public static final String GET_PATIENT = "SELECT Salt, Hash FROM Patients WHERE Username = ?; ";
+    public static final String GET_CAREGIVER = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?; ";
+    public static final String UPDATE_PATIENT_HASH = "UPDATE Patients SET Hash = ? WHERE Username = ? AND Hash = ?; ";
+    public static final String UPDATE_CAREGIVER_HASH =
+            "UPDATE Caregivers SET Hash = ? WHERE Username = ? AND Hash = ?; ";
+
+    // table is Patients or Caregivers; inserts nothing (update count 0) when the username is taken
+    public static String importAccount(String table) {
+        return "INSERT INTO " + table + " (Username, Salt, Hash) SELECT ?, ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM " + table + " WHERE Username = ?); ";
+    }
+
+    public static String usernameExists(String table) {
+        return "SELECT 1 FROM " + table + " WHERE Username = ?; ";
+    }
+
+    public static String countUsernames(String table) {
+        return "SELECT COUNT(*) FROM " + table + "; ";
+    }
+
+    public static String getUsernames(String table) {
+        return "SELECT Username FROM " + table + "; ";
+    }
+
+    // availability
+    public static final String ADD_AVAILABILITY = "INSERT INTO Availabilities VALUES (? , ?); ";
+    // inserts nothing (update count 0) when the row already exists
+    public static final String ADD_AVAILABILITY_IF_ABSENT = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?); ";
+    public static final String GET_AVAILABLE_CAREGIVERS = "SELECT Username FROM Availabilities WHERE Time = ?; ";
+    public static final String GET_RESERVE_CANDIDATES =
+            "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username; ";
+    public static final String CLAIM_SLOT = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?; ";
+
+    // appointments
+    public static final String CREATE_APPOINTMENT = "INSERT INTO Appointments (Vaccine, Time, Patient, Caregiver) " +
+            "VALUES (? , ?, ?, ?); ";
+    public static final String GET_APPOINTMENT =
+            "SELECT Vaccine, Time, Patient, Caregiver FROM Appointments WHERE ID = ?; ";
+    public static final String DELETE_APPOINTMENT = "DELETE FROM Appointments WHERE ID = ?; ";
+    public static final String GET_BOOKINGS =
+            "SELECT Caregiver, COUNT(*) FROM Appointments WHERE Time = ? GROUP BY Caregiver; ";
+    // keyset pagination on (Time, ID); ordering by the user as well lets the database read the (user, Time, ID)
+    // index in order and stop after one page instead of sorting all of the user's appointments
+    public static final String GET_PATIENT_APPOINTMENTS = "SELECT TOP (?) ID, Vaccine, Time, Caregiver " +
+            "FROM Appointments WHERE Patient = ? AND Time >= ? AND Time <= ? AND (Time > ? OR (Time = ? AND ID > ?)) " +
+            "ORDER BY Patient, Time, ID; ";
+    public static final String GET_CAREGIVER_APPOINTMENTS = "SELECT TOP (?) ID, Vaccine, Time, Patient " +
+            "FROM Appointments WHERE Caregiver = ? AND Time >= ? AND Time <= ? AND (Time > ? OR (Time = ? AND ID > ?)) " +
+            "ORDER BY Caregiver, Time, ID; ";
+
+    // vaccines
+    public static final String ADD_VACCINE = "INSERT INTO Vaccines VALUES (?, ?); ";
+    public static final String GET_VACCINE = "SELECT Name, Doses FROM Vaccines WHERE Name = ?; ";
+    public static final String GET_VACCINES = "SELECT Name, Doses FROM Vaccines; ";
+
+    // the dose changes are applied on the server, so concurrent updates can't overwrite each other, and return
+    // the new count; the guards make a decrease a no-op instead of letting the count go negative
+    public static String increaseDoses(Dialect dialect) {
+        return dialect.returning("UPDATE Vaccines SET Doses = Doses + ?", "Doses", "WHERE Name = ?");
+    }
+
+    public static String decreaseDoses(Dialect dialect) {
+        return dialect.returning("UPDATE Vaccines SET Doses = Doses - ?", "Doses", "WHERE Name = ? AND Doses >= ?");
+    }
+
+    public static String takeDose(Dialect dialect) {
+        return dialect.returning("UPDATE Vaccines SET Doses = Doses - 1", "Doses", "WHERE Name = ? AND Doses >= 1");
+    }
+
+    public static String returnDose(Dialect dialect) {
+        return dialect.returning("UPDATE Vaccines SET Doses = Doses + 1", "Doses", "WHERE Name = ?");
+    }
+
+    // one (Name, Delta) pair of parameters per vaccine, returns the name and new count of every updated vaccine
+    public static String applyDoseDeltas(Dialect dialect, int vaccines) {
+        StringBuilder applyDeltas = new StringBuilder("MERGE INTO Vaccines AS v USING (VALUES ");
+        for (int i = 0; i < vaccines; i++) {
+            applyDeltas.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+        }
+        applyDeltas.append(") AS d (Name, Delta) ON v.Name = d.Name " +
+                "WHEN MATCHED AND v.Doses + d.Delta >= 0 THEN UPDATE SET Doses = v.Doses + d.Delta");
+        return dialect.returning(applyDeltas.toString(), "Name, Doses", "");
+    }
+
+    // waitlist; joining inserts nothing (update count 0) when the patient already waits for the same date and vaccine
+    public static final String JOIN_WAITLIST = "INSERT INTO Waitlist (Patient, Vaccine, Time) SELECT ?, ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Waitlist WHERE Patient = ? AND Time = ? AND Vaccine = ?); ";
+    public static final String CLAIM_WAITLIST_ENTRY = "DELETE FROM Waitlist WHERE ID = ?; ";
+
+    // takes the limit and the ID to start after, then the date and the vaccine if they are filtered on
+    public static String getWaitlistEntries(boolean byDate, boolean byVaccine) {
+        return "SELECT TOP (?) ID, Patient, Vaccine, Time FROM Waitlist WHERE ID > ?" +
+                (byDate ? " AND Time = ?" : "") +
+                (byVaccine ? " AND Vaccine = ?" : "") +
+                " ORDER BY ID; ";
+    }
+
+    // events
+    public static final String ADD_EVENT = "INSERT INTO Events (Time, Type, Actor, Detail) VALUES (?, ?, ?, ?); ";
+}
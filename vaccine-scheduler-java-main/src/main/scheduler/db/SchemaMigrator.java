@@ -0,0 +1,222 @@
+package scheduler.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the database schema up to date at startup.
+ *
+ * The schema is built by numbered scripts on the classpath, migrations/V1.sql, V2.sql, ..., whose first line is a
+ * "-- description" comment. Every script runs once, in its own transaction together with the row that records it
+ * in the schema_version table, so a failed script leaves nothing behind and is retried on the next start.
+ * Scripts are never edited once released: a schema change is always a new script.
+ *
+ * Databases created from the original create.sql have the tables but no schema_version table. They are
+ * recognised by their Patients table and recorded as being at version 1, which is exactly that create.sql.
+ *
+ * Several schedulers may start against the same database at once, so the whole migration runs while a second
+ * connection holds a lock on the single row of the schema_lock table. Whoever gets the lock first migrates, the
+ * others wait for it and then find nothing left to do. The lock is on its own connection because DDL commits the
+ * migration connection's transaction on some databases (H2). Waiting is capped at
+ * -Dscheduler.db.migrationLockSeconds (default 120).
+ */
+public class SchemaMigrator {
+
+    private static final String MIGRATIONS = "migrations/V";
+    private static final String BASELINE_TABLE = "Patients";
+
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE schema_version (" +
+            "Version int NOT NULL, " +
+            "Description varchar(255) NOT NULL, " +
+            "AppliedAt datetime2 NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+            "PRIMARY KEY (Version)); ";
+    private static final String GET_VERSION = "SELECT MAX(Version) FROM schema_version; ";
+    private static final String ADD_VERSION = "INSERT INTO schema_version (Version, Description) VALUES (?, ?); ";
+    private static final String CREATE_LOCK_TABLE = "CREATE TABLE schema_lock (ID int NOT NULL, PRIMARY KEY (ID)); ";
+    private static final String ADD_LOCK_ROW = "INSERT INTO schema_lock (ID) SELECT 1 " +
+            "WHERE NOT EXISTS (SELECT 1 FROM schema_lock WHERE ID = 1); ";
+    private static final String TAKE_LOCK = "UPDATE schema_lock SET ID = ID WHERE ID = 1; ";
+
+    private static final long lockMillis = Long.getLong("scheduler.db.migrationLockSeconds", 120) * 1000;
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * Applies every script newer than the database's version and returns how many were applied.
+     */
+    public static int migrate() throws SQLException {
+        ConnectionManager lock = new ConnectionManager();
+        Connection lockCon = lock.createConnection();
+        if (lockCon == null) {
+            throw new SQLException("No database connection");
+        }
+        try {
+            takeLock(lock, lockCon);
+            try {
+                return migrateLocked();
+            } finally {
+                lock.rollbackTransaction();
+            }
+        } finally {
+            lock.closeConnection();
+        }
+    }
+
+    private static int migrateLocked() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLException("No database connection");
+        }
+        try {
+            int version = currentVersion(con);
+            int applied = 0;
+            String script;
+            while ((script = readScript(version + 1)) != null) {
+                version++;
+                cm.beginTransaction();
+                try {
+                    for (String sql : statements(script)) {
+                        try (Statement statement = con.createStatement()) {
+                            statement.execute(sql);
+                        }
+                    }
+                    recordVersion(con, version, description(script));
+                    cm.commitTransaction();
+                } catch (SQLException e) {
+                    cm.rollbackTransaction();
+                    throw new SQLException("Migration V" + version + " failed: " + e.getMessage(), e);
+                }
+                applied++;
+            }
+            return applied;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Creates the lock table and row if they don't exist yet, then locks the row in a transaction that stays open
+     * until the caller rolls it back. Another scheduler creating them at the same time is not an error.
+     */
+    private static void takeLock(ConnectionManager lock, Connection con) throws SQLException {
+        if (!tableExists(con, "schema_lock")) {
+            try (Statement statement = con.createStatement()) {
+                statement.execute(CREATE_LOCK_TABLE);
+            } catch (SQLException e) {
+                if (!tableExists(con, "schema_lock")) {
+                    throw e;
+                }
+            }
+        }
+        try (Statement statement = con.createStatement()) {
+            statement.executeUpdate(ADD_LOCK_ROW);
+        } catch (SQLException e) {
+            // SQLState class 23: the other scheduler inserted the row first
+            if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                throw e;
+            }
+        }
+        long deadline = System.currentTimeMillis() + lockMillis;
+        while (true) {
+            lock.beginTransaction();
+            try (Statement statement = con.createStatement()) {
+                // SQL Server waits for the lock without a timeout of its own, H2 gives up after a second or so
+                statement.setQueryTimeout((int) Math.max(1, (deadline - System.currentTimeMillis()) / 1000));
+                statement.executeUpdate(TAKE_LOCK);
+                return;
+            } catch (SQLException e) {
+                lock.rollbackTransaction();
+                // a lock timeout means another scheduler is still migrating
+                if (!TransactionRetry.isConflict(e) || System.currentTimeMillis() >= deadline) {
+                    throw new SQLException("Cannot lock the schema for migration: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    // Returns the version the database is at, creating schema_version first if it doesn't exist yet
+    private static int currentVersion(Connection con) throws SQLException {
+        if (!tableExists(con, "schema_version")) {
+            try (Statement statement = con.createStatement()) {
+                statement.execute(CREATE_VERSION_TABLE);
+            }
+            if (tableExists(con, BASELINE_TABLE)) {
+                recordVersion(con, 1, description(readScript(1)));
+            }
+        }
+        try (Statement statement = con.createStatement();
+             ResultSet rs = statement.executeQuery(GET_VERSION)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void recordVersion(Connection con, int version, String description) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(ADD_VERSION)) {
+            statement.setInt(1, version);
+            statement.setString(2, description);
+            statement.executeUpdate();
+        }
+    }
+
+    private static boolean tableExists(Connection con, String table) throws SQLException {
+        // unquoted names are stored upper case by some databases (H2) and as written by others (SQL Server)
+        DatabaseMetaData metaData = con.getMetaData();
+        for (String name : new String[]{table, table.toUpperCase()}) {
+            try (ResultSet rs = metaData.getTables(null, null, name, new String[]{"TABLE"})) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Returns the script for the given version, or null if there is none
+    private static String readScript(int version) throws SQLException {
+        try (InputStream in = SchemaMigrator.class.getClassLoader()
+                .getResourceAsStream(MIGRATIONS + version + ".sql")) {
+            if (in == null) {
+                return null;
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Cannot read migration V" + version, e);
+        }
+    }
+
+    // The text of the script's first line, which is a "-- description" comment
+    private static String description(String script) {
+        String firstLine = script.lines().findFirst().orElse("").trim();
+        String description = firstLine.startsWith("--") ? firstLine.substring(2).trim() : "";
+        return description.length() > 255 ? description.substring(0, 255) : description;
+    }
+
+    // Splits a script into its ;-separated statements, leaving out -- comment lines
+    private static List<String> statements(String script) {
+        StringBuilder code = new StringBuilder();
+        for (String line : script.split("\n")) {
+            if (!line.trim().startsWith("--")) {
+                code.append(line).append('\n');
+            }
+        }
+        List<String> statements = new ArrayList<>();
+        for (String sql : code.toString().split(";")) {
+            if (!sql.isBlank()) {
+                statements.add(sql.trim());
+            }
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,125 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The prepared statements of one pooled connection, kept open across borrows so that the same SQL is only parsed
+ * and planned once per connection.
+ *
+ * Statements are looked up by their SQL (and whether they return generated keys) and the least recently used one
+ * is closed once there are more than maxSize. A statement handed out by prepare() is in use until release(), which
+ * closes its result set and clears its parameters and batch; a statement that is evicted while in use is closed on
+ * release instead. Generated keys are closed when the statement runs again. Only the thread that borrowed the
+ * connection uses its cache, so it isn't synchronized.
+ */
+class StatementCache {
+
+    private final Connection connection;
+    private final int maxSize;
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<PreparedStatement> inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<PreparedStatement> closeOnRelease = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // shared by all caches of a pool
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    StatementCache(Connection connection, int maxSize, AtomicLong hits, AtomicLong misses, AtomicLong evictions) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    // Returns the cached statement for the SQL, preparing it on a miss
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "keys:" + sql : sql;
+        PreparedStatement statement = statements.get(key);
+        if (statement != null && !statement.isClosed()) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            statement = connection.prepareStatement(sql, autoGeneratedKeys);
+            statements.put(key, statement);
+        }
+        inUse.add(statement);
+        trim();
+        return statement;
+    }
+
+    // Evicts the least recently used statements beyond maxSize
+    private void trim() {
+        Iterator<PreparedStatement> it = statements.values().iterator();
+        while (statements.size() > maxSize && it.hasNext()) {
+            PreparedStatement statement = it.next();
+            it.remove();
+            evictions.incrementAndGet();
+            if (inUse.contains(statement)) {
+                closeOnRelease.add(statement);
+            } else {
+                closeQuietly(statement);
+            }
+        }
+    }
+
+    // Called when the borrower is done with the statement
+    void release(PreparedStatement statement) {
+        if (!inUse.remove(statement)) {
+            return;
+        }
+        if (closeOnRelease.remove(statement)) {
+            closeQuietly(statement);
+            return;
+        }
+        try {
+            ResultSet resultSet = statement.getResultSet();
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            statement.clearParameters();
+            statement.clearBatch();
+        } catch (SQLException e) {
+            // not reusable, prepare it again next time
+            statements.values().remove(statement);
+            closeQuietly(statement);
+        }
+    }
+
+    // Closes every statement, for when the connection is discarded
+    void close() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        for (PreparedStatement statement : closeOnRelease) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+        inUse.clear();
+        closeOnRelease.clear();
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // closing the connection releases it anyway
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package scheduler.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a transaction again when the database aborted it because of a concurrent one (a deadlock or a
+ * serialization failure), which happens once several scheduler instances share a database.
+ *
+ * A transaction is tried at most -Dscheduler.retry.maxAttempts times (default 5). Before every retry it waits a
+ * random time between 0 and -Dscheduler.retry.backoffMillis (default 10), doubled for every failed attempt and
+ * capped at -Dscheduler.retry.maxBackoffMillis (default 500), so that the transactions that collided don't collide
+ * again. Inside a bound transaction nothing is retried: the conflict rolled back the whole enclosing transaction,
+ * so it is left to its owner.
+ *
+ * The scheduler's writes are conditional (UPDATE ... WHERE Doses >= ?, DELETE of the claimed row), so losing a
+ * race for a slot or a waitlist entry is not an error and isn't retried. recordLostRace() counts those, to show how
+ * much the instances contend.
+ */
+public class TransactionRetry {
+
+    private static final int maxAttempts = Integer.getInteger("scheduler.retry.maxAttempts", 5);
+    private static final long backoffMillis = Long.getLong("scheduler.retry.backoffMillis", 10);
+    private static final long maxBackoffMillis = Long.getLong("scheduler.retry.maxBackoffMillis", 500);
+
+    private static final TransactionRetry instance = new TransactionRetry();
+
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicLong lostRaces = new AtomicLong();
+
+    private TransactionRetry() {
+    }
+
+    public static TransactionRetry getInstance() {
+        return instance;
+    }
+
+    public interface Attempt<T> {
+        T run() throws SQLException;
+    }
+
+    /**
+     * Runs the attempt, and runs it again while it throws a conflict and attempts are left. The attempt has to
+     * roll back its own transaction before throwing, and must rethrow conflicts with their SQLState.
+     */
+    public <T> T run(Attempt<T> attempt) throws SQLException {
+        for (int attempts = 1; ; attempts++) {
+            try {
+                return attempt.run();
+            } catch (SQLException e) {
+                if (!isConflict(e)) {
+                    throw e;
+                }
+                // counted once, by the retry outside of the bound transaction if there is one
+                if (ConnectionManager.hasBoundTransaction()) {
+                    throw e;
+                }
+                conflicts.incrementAndGet();
+                if (attempts >= maxAttempts) {
+                    exhausted.incrementAndGet();
+                    throw e;
+                }
+                retries.incrementAndGet();
+                backOff(attempts, e);
+            }
+        }
+    }
+
+    // Returns true if the database rolled the transaction back because of a concurrent one
+    public static boolean isConflict(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                SQLException sql = (SQLException) t;
+                // 40001 is a serialization failure or deadlock (1205 on SQL Server), HYT00 a lock timeout on H2
+                if ("40001".equals(sql.getSQLState()) || "HYT00".equals(sql.getSQLState())
+                        || sql.getErrorCode() == 1205) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Called when a conditional write found that a concurrent transaction had already taken its row
+    public void recordLostRace() {
+        lostRaces.incrementAndGet();
+    }
+
+    private static void backOff(int attempts, SQLException conflict) throws SQLException {
+        long bound = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempts - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw conflict;
+        }
+    }
+
+    // Getters
+    // attempts that failed because of a conflict, including the last one of an exhausted retry
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    // transactions that still conflicted after maxAttempts
+    public long getExhaustedCount() {
+        return exhausted.get();
+    }
+
+    public long getLostRaceCount() {
+        return lostRaces.get();
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionRetry{" +
+                "conflicts=" + getConflictCount() +
+                ", retries=" + getRetryCount() +
+                ", exhausted=" + getExhaustedCount() +
+                ", lostRaces=" + getLostRaceCount() +
+                '}';
+    }
+}
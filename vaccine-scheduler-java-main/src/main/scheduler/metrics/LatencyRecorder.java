@@ -0,0 +1,68 @@
+package scheduler.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies and reports percentiles over the most recent samples.
+ *
+ * Recording is lock-free: samples go into a fixed-size ring, so memory stays bounded and percentiles describe the
+ * last WINDOW samples rather than the whole run. The count and total cover every sample ever recorded.
+ */
+public class LatencyRecorder {
+
+    private static final int WINDOW = 4096;
+
+    private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long index = count.getAndIncrement();
+        samples.set((int) (index % WINDOW), nanos);
+        totalNanos.addAndGet(nanos);
+    }
+
+    // Records the time elapsed since startNanos, as returned by System.nanoTime()
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0.0 : totalNanos.get() / 1e6 / n;
+    }
+
+    /**
+     * Returns the given percentile (0 to 100) of the recent samples in milliseconds, or 0 if nothing was recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] sorted = snapshot();
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))] / 1e6;
+    }
+
+    private long[] snapshot() {
+        int size = (int) Math.min(count.get(), WINDOW);
+        long[] copy = new long[size];
+        for (int i = 0; i < size; i++) {
+            copy[i] = samples.get(i);
+        }
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.3f ms, p50=%.3f ms, p95=%.3f ms, p99=%.3f ms", getCount(),
+                getMeanMillis(), getPercentileMillis(50), getPercentileMillis(95), getPercentileMillis(99));
+    }
+}
@@ -0,0 +1,93 @@
+package scheduler.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The process-wide set of timers, by name.
+ *
+ * Every command run by CommandEngine is timed as command.&lt;name&gt;, and the layers below it time their own share:
+ * connection.acquire (borrowing from the pool), sql.execute (running a statement), password.hash and the
+ * login.verify / login.queue timers of LoginVerifier. Each timer is registered with the platform MBean server as
+ * scheduler:type=Timer,name=&lt;name&gt; unless -Dscheduler.metrics.jmx=false, shown by the stats command, and
+ * written as JSON by dump().
+ */
+public class Metrics {
+
+    private static final boolean jmx = Boolean.parseBoolean(System.getProperty("scheduler.metrics.jmx", "true"));
+
+    private static final Metrics instance = new Metrics();
+
+    // sorted by name, so that related timers are listed together
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    // Returns the timer with the given name, creating and registering it the first time
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer != null) {
+            return timer;
+        }
+        // computeIfAbsent alone may call register() twice for the same name
+        synchronized (timers) {
+            return timers.computeIfAbsent(name, this::register);
+        }
+    }
+
+    public List<Timer> getTimers() {
+        return new ArrayList<>(timers.values());
+    }
+
+    /**
+     * Returns every timer as one JSON object: {"timers": {"&lt;name&gt;": {"count": ..., "errors": ...,
+     * "meanMillis": ..., "p50Millis": ..., "p95Millis": ..., "p99Millis": ...}, ...}}
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"timers\": {");
+        boolean first = true;
+        for (Timer timer : timers.values()) {
+            json.append(first ? "\n" : ",\n");
+            first = false;
+            json.append(String.format(Locale.ROOT, "  \"%s\": {\"count\": %d, \"errors\": %d, \"meanMillis\": %.3f, "
+                            + "\"p50Millis\": %.3f, \"p95Millis\": %.3f, \"p99Millis\": %.3f}",
+                    timer.getName(), timer.getCount(), timer.getErrorCount(), timer.getMeanMillis(),
+                    timer.getP50Millis(), timer.getP95Millis(), timer.getP99Millis()));
+        }
+        return json.append(first ? "}}\n" : "\n}}\n").toString();
+    }
+
+    // Writes toJson() to the file, replacing it
+    public void dump(Path file) throws IOException {
+        Files.write(file, toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Timer register(String name) {
+        Timer timer = new Timer(name);
+        if (jmx) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(timer,
+                        new ObjectName("scheduler:type=Timer,name=" + name));
+            } catch (JMException e) {
+                // the timer still works, it just isn't visible over JMX
+                e.printStackTrace();
+            }
+        }
+        return timer;
+    }
+}
@@ -0,0 +1,75 @@
+package scheduler.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named latency recorder that also counts the timed calls that failed.
+ */
+public class Timer implements TimerMBean {
+
+    private final String name;
+    private final LatencyRecorder latency = new LatencyRecorder();
+    private final AtomicLong errors = new AtomicLong();
+
+    Timer(String name) {
+        this.name = name;
+    }
+
+    // Records the time elapsed since startNanos, as returned by System.nanoTime()
+    public void recordSince(long startNanos) {
+        latency.recordSince(startNanos);
+    }
+
+    // Records the time elapsed since startNanos, and counts an error if the call failed
+    public void recordSince(long startNanos, boolean ok) {
+        latency.recordSince(startNanos);
+        if (!ok) {
+            errors.incrementAndGet();
+        }
+    }
+
+    // Getters
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMeanMillis();
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getP95Millis() {
+        return latency.getPercentileMillis(95);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getPercentileMillis(99);
+    }
+
+    public LatencyRecorder getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": errors=" + getErrorCount() + ", " + latency;
+    }
+}
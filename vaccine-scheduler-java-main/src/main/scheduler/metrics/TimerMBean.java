@@ -0,0 +1,20 @@
+package scheduler.metrics;
+
+/**
+ * The JMX view of a Timer, registered as scheduler:type=Timer,name=&lt;timer name&gt;.
+ */
+public interface TimerMBean {
+    String getName();
+
+    long getCount();
+
+    long getErrorCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+}
@@ -0,0 +1,333 @@
+package scheduler.model;
+
+import scheduler.cache.UsernameRegistry;
+import scheduler.db.ConnectionManager;
+import scheduler.db.Queries;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Creates patient and caregiver accounts from CSV lines of the form {@code patient|caregiver,<username>,<password>}
+ * (everything after the second comma is the password). Blank lines, lines starting with # and a
+ * {@code type,username,password} header are skipped.
+ *
+ * The file is streamed in chunks of -Dscheduler.import.chunkSize rows (default 1000). The passwords of a chunk are
+ * hashed on one thread per core while the previous chunk is inserted, and every chunk is inserted with one batched
+ * statement per table in its own transaction. Rows that are invalid, appear earlier in the file or whose username
+ * is taken are reported as problems and don't stop the import.
+ */
+public class AccountImport {
+
+    private static final int chunkSize = Integer.getInteger("scheduler.import.chunkSize", 1000);
+    private static final int threads = Runtime.getRuntime().availableProcessors();
+    // only the first problems are kept, a file of bad rows would otherwise be held in memory message by message
+    private static final int MAX_PROBLEMS = 20;
+
+    private int patients = 0;
+    private int caregivers = 0;
+    private int duplicates = 0;
+    private int invalid = 0;
+    private final List<String> problems = new ArrayList<>();
+
+    private AccountImport() {
+    }
+
+    /**
+     * Imports the accounts in csv. passwordCheck returns why a password is too weak, or null if it is fine.
+     */
+    public static AccountImport run(BufferedReader csv, Function<String, String> passwordCheck)
+            throws IOException, SQLException {
+        AccountImport result = new AccountImport();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService hashers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "account-import-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // usernames seen so far, by table, lowercased since the database may compare them case-insensitively
+            Set<String> seen = new HashSet<>();
+            List<Row> hashing = null;
+            List<Row> chunk = new ArrayList<>();
+            String line;
+            int lineNumber = 0;
+            while ((line = csv.readLine()) != null) {
+                lineNumber++;
+                Row row = result.parse(lineNumber, line, passwordCheck, seen);
+                if (row == null) {
+                    continue;
+                }
+                chunk.add(row);
+                if (chunk.size() == chunkSize) {
+                    // the next chunk is hashed while this one is inserted
+                    hash(chunk, hashers);
+                    if (hashing != null) {
+                        result.insert(hashing);
+                    }
+                    hashing = chunk;
+                    chunk = new ArrayList<>();
+                }
+            }
+            hash(chunk, hashers);
+            if (hashing != null) {
+                result.insert(hashing);
+            }
+            result.insert(chunk);
+            return result;
+        } finally {
+            hashers.shutdownNow();
+        }
+    }
+
+    // Returns the row to import, or null if the line is skipped or was reported as a problem
+    private Row parse(int lineNumber, String line, Function<String, String> passwordCheck, Set<String> seen)
+            throws SQLException {
+        if (line.isBlank() || line.startsWith("#")
+                || (lineNumber == 1 && line.trim().equalsIgnoreCase("type,username,password"))) {
+            return null;
+        }
+        String[] fields = line.split(",", 3);
+        if (fields.length != 3) {
+            problem(lineNumber, "expected <type>,<username>,<password>");
+            return null;
+        }
+        String type = fields[0].trim().toLowerCase(Locale.ROOT);
+        String username = fields[1].trim();
+        String password = fields[2];
+        if (!type.equals("patient") && !type.equals("caregiver")) {
+            // the field isn't echoed, the file may not be an account list at all
+            problem(lineNumber, "unknown account type, expected patient or caregiver");
+            return null;
+        }
+        if (username.isEmpty() || username.length() > 255 || username.contains(" ")) {
+            problem(lineNumber, "invalid username");
+            return null;
+        }
+        String weakness = passwordCheck.apply(password);
+        if (weakness != null) {
+            problem(lineNumber, weakness);
+            return null;
+        }
+        boolean patient = type.equals("patient");
+        if (!seen.add(type + ":" + username.toLowerCase(Locale.ROOT))) {
+            duplicate(lineNumber, username, "appears earlier in the file");
+            return null;
+        }
+        // checked before hashing so taken names don't cost a hash, the insert checks again
+        UsernameRegistry registry = patient ? UsernameRegistry.patients() : UsernameRegistry.caregivers();
+        if (registry.exists(username)) {
+            duplicate(lineNumber, username, "is taken");
+            return null;
+        }
+        return new Row(lineNumber, patient, username, password);
+    }
+
+    private static void hash(List<Row> chunk, ExecutorService hashers) {
+        for (Row row : chunk) {
+            byte[] salt = Util.generateSalt();
+            String password = row.password;
+            row.salt = salt;
+            row.hash = hashers.submit(() -> Util.generateHash(password, salt));
+        }
+    }
+
+    private void insert(List<Row> chunk) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        // wait for the hashes before taking a connection
+        List<Row> patientRows = new ArrayList<>();
+        List<Row> caregiverRows = new ArrayList<>();
+        for (Row row : chunk) {
+            try {
+                row.hashed = row.hash.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while hashing passwords");
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            row.password = null;
+            (row.patient ? patientRows : caregiverRows).add(row);
+        }
+
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        int[] patientCounts;
+        int[] caregiverCounts;
+        try {
+            cm.beginTransaction();
+            patientCounts = insertBatch(cm, "Patients", patientRows);
+            caregiverCounts = insertBatch(cm, "Caregivers", caregiverRows);
+            cm.commitTransaction();
+        } catch (SQLException e) {
+            rollbackQuietly(cm);
+            if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                throw new SQLException();
+            }
+            // a name was inserted by someone else after the NOT EXISTS check, insert the chunk row by row
+            patientCounts = null;
+            caregiverCounts = null;
+        } finally {
+            cm.closeConnection();
+        }
+        if (patientCounts == null) {
+            insertOneByOne(chunk);
+            return;
+        }
+        inserted(patientRows, patientCounts);
+        inserted(caregiverRows, caregiverCounts);
+    }
+
+    // Inserts the rows with one batch, a count of 0 means the username was taken
+    private static int[] insertBatch(ConnectionManager cm, String table, List<Row> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return new int[0];
+        }
+        String addAccount = Queries.importAccount(table);
+        PreparedStatement statement = cm.prepareStatement(addAccount);
+        for (Row row : rows) {
+            statement.setString(1, row.username);
+            statement.setBytes(2, row.salt);
+            statement.setBytes(3, row.hashed);
+            statement.setString(4, row.username);
+            statement.addBatch();
+        }
+        return cm.executeBatch(statement);
+    }
+
+    private void inserted(List<Row> rows, int[] counts) {
+        for (int i = 0; i < counts.length; i++) {
+            Row row = rows.get(i);
+            if (counts[i] > 0) {
+                created(row);
+            } else {
+                duplicate(row.line, row.username, "is taken");
+            }
+        }
+    }
+
+    private void insertOneByOne(List<Row> chunk) throws SQLException {
+        for (Row row : chunk) {
+            try {
+                if (row.patient) {
+                    new Patient.PatientBuilder(row.username, row.salt, row.hashed).build().saveToDB();
+                } else {
+                    new Caregiver.CaregiverBuilder(row.username, row.salt, row.hashed).build().saveToDB();
+                }
+                // saveToDB() already added the name to the registry
+                if (row.patient) {
+                    patients++;
+                } else {
+                    caregivers++;
+                }
+            } catch (SQLIntegrityConstraintViolationException e) {
+                duplicate(row.line, row.username, "is taken");
+            }
+        }
+    }
+
+    private void created(Row row) {
+        if (row.patient) {
+            patients++;
+            UsernameRegistry.patients().add(row.username);
+        } else {
+            caregivers++;
+            UsernameRegistry.caregivers().add(row.username);
+        }
+    }
+
+    private void duplicate(int lineNumber, String username, String reason) {
+        duplicates++;
+        if (problems.size() < MAX_PROBLEMS) {
+            problems.add("line " + lineNumber + ": username " + username + " " + reason);
+        }
+    }
+
+    private void problem(int lineNumber, String reason) {
+        invalid++;
+        if (problems.size() < MAX_PROBLEMS) {
+            problems.add("line " + lineNumber + ": " + reason);
+        }
+    }
+
+    private static void rollbackQuietly(ConnectionManager cm) {
+        try {
+            cm.rollbackTransaction();
+        } catch (SQLException e) {
+            // the connection is rolled back when it goes back to the pool anyway
+        }
+    }
+
+    // Getters
+    public int getPatients() {
+        return patients;
+    }
+
+    public int getCaregivers() {
+        return caregivers;
+    }
+
+    // rows whose username was taken or appeared earlier in the file
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    // rows that could not be parsed or had a weak password
+    public int getInvalid() {
+        return invalid;
+    }
+
+    // one message per skipped row, for the first ones of getProblemCount()
+    public List<String> getProblems() {
+        return Collections.unmodifiableList(problems);
+    }
+
+    public int getProblemCount() {
+        return duplicates + invalid;
+    }
+
+    @Override
+    public String toString() {
+        return "AccountImport{" +
+                "patients=" + patients +
+                ", caregivers=" + caregivers +
+                ", duplicates=" + duplicates +
+                ", invalid=" + invalid +
+                '}';
+    }
+
+    private static class Row {
+        private final int line;
+        private final boolean patient;
+        private final String username;
+        private String password;
+        private byte[] salt;
+        private Future<byte[]> hash;
+        private byte[] hashed;
+
+        private Row(int line, boolean patient, String username, String password) {
+            this.line = line;
+            this.patient = patient;
+            this.username = username;
+            this.password = password;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+/**
+ * Position in a list of appointments ordered by (Time, ID), used for keyset pagination: the next page starts
+ * right after the appointment the cursor points at. Written as "<date>:<id>", e.g. "2026-11-02:15".
+ */
+public class AppointmentCursor {
+
+    // the position before every appointment
+    public static final AppointmentCursor START = new AppointmentCursor(Date.valueOf("0001-01-01"), 0);
+
+    private final Date time;
+    private final int id;
+
+    public AppointmentCursor(Date time, int id) {
+        this.time = time;
+        this.id = id;
+    }
+
+    // Parses a cursor written by toString(), throws IllegalArgumentException if it isn't one
+    public static AppointmentCursor parse(String cursor) {
+        int colon = cursor.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return new AppointmentCursor(Date.valueOf(cursor.substring(0, colon)),
+                Integer.parseInt(cursor.substring(colon + 1)));
+    }
+
+    // Getters
+    public Date getTime() {
+        return time;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return time + ":" + id;
+    }
+}
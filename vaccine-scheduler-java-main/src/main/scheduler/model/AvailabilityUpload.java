@@ -0,0 +1,32 @@
+package scheduler.model;
+
+/**
+ * The outcome of Caregiver.uploadAvailability() over a date range.
+ */
+public class AvailabilityUpload {
+    private final int inserted;
+    private final int skipped;
+
+    public AvailabilityUpload(int inserted, int skipped) {
+        this.inserted = inserted;
+        this.skipped = skipped;
+    }
+
+    // Getters
+    public int getInserted() {
+        return inserted;
+    }
+
+    // dates the caregiver had already uploaded
+    public int getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public String toString() {
+        return "AvailabilityUpload{" +
+                "inserted=" + inserted +
+                ", skipped=" + skipped +
+                '}';
+    }
+}
@@ -0,0 +1,156 @@
+package scheduler.model;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.BookingCounter;
+import scheduler.cache.VaccineCatalog;
+import scheduler.db.ConnectionManager;
+import scheduler.db.Queries;
+import scheduler.db.TransactionRetry;
+import scheduler.util.WaitlistMatcher;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The outcome of Patient.cancel() and Caregiver.cancel(). Only a CANCELLED cancellation carries the details of
+ * the appointment that was cancelled.
+ */
+public class Cancellation {
+
+    public enum Status {
+        // the appointment was deleted, its slot was given back to the caregiver and its dose to the vaccine
+        CANCELLED,
+        // there is no appointment with that ID, or a concurrent cancel removed it first
+        NOT_FOUND,
+        // the appointment belongs to someone else
+        NOT_ALLOWED
+    }
+
+    private final Status status;
+    private final String vaccine;
+    private final Date time;
+    private final String caregiver;
+
+    private Cancellation(Status status, String vaccine, Date time, String caregiver) {
+        this.status = status;
+        this.vaccine = vaccine;
+        this.time = time;
+        this.caregiver = caregiver;
+    }
+
+    /**
+     * Cancels an appointment of the given patient or caregiver (the other one is null) in a single transaction:
+     * the appointment is deleted, the vaccine's dose count is incremented on the server and the caregiver's
+     * Availabilities row for its date is inserted again. A transaction aborted because of a concurrent one is
+     * retried by TransactionRetry.
+     */
+    static Cancellation cancel(int appointmentId, String patient, String caregiver) throws SQLException {
+        return TransactionRetry.getInstance().run(() -> tryCancel(appointmentId, patient, caregiver));
+    }
+
+    private static Cancellation tryCancel(int appointmentId, String patient, String caregiver) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        String getAppointment = Queries.GET_APPOINTMENT;
+        String deleteAppointment = Queries.DELETE_APPOINTMENT;
+        // the caregiver may have uploaded the date again since the appointment was made
+        String returnSlot = Queries.ADD_AVAILABILITY_IF_ABSENT;
+        String returnDose = Queries.returnDose(ConnectionManager.getDialect());
+        try {
+            cm.beginTransaction();
+            PreparedStatement statement1 = cm.prepareStatement(getAppointment);
+            statement1.setInt(1, appointmentId);
+            ResultSet rs = cm.executeQuery(statement1);
+            if (!rs.next()) {
+                cm.rollbackTransaction();
+                return failed(Status.NOT_FOUND);
+            }
+            String vaccineName = rs.getString(1);
+            Date d = rs.getDate(2);
+            String appointmentCaregiver = rs.getString(4);
+            if (patient != null ? !patient.equals(rs.getString(3)) : !caregiver.equals(appointmentCaregiver)) {
+                cm.rollbackTransaction();
+                return failed(Status.NOT_ALLOWED);
+            }
+            // a delete count of 0 means a concurrent cancel got there first
+            PreparedStatement statement2 = cm.prepareStatement(deleteAppointment);
+            statement2.setInt(1, appointmentId);
+            if (cm.executeUpdate(statement2) != 1) {
+                cm.rollbackTransaction();
+                TransactionRetry.getInstance().recordLostRace();
+                return failed(Status.NOT_FOUND);
+            }
+            // the vaccine row is locked before the availability, in the same order as reserve(), so that a
+            // cancellation and a reservation can't deadlock each other
+            PreparedStatement statement3 = cm.prepareStatement(returnDose);
+            statement3.setString(1, vaccineName);
+            ResultSet doses = cm.executeQuery(statement3);
+            if (!doses.next()) {
+                throw new SQLException();
+            }
+            int dosesLeft = doses.getInt(1);
+            PreparedStatement statement4 = cm.prepareStatement(returnSlot);
+            statement4.setDate(1, d);
+            statement4.setString(2, appointmentCaregiver);
+            statement4.setDate(3, d);
+            statement4.setString(4, appointmentCaregiver);
+            cm.executeUpdate(statement4);
+            cm.commitTransaction();
+            ConnectionManager.afterCommit(() -> {
+                AvailabilityIndex.getInstance().addAvailability(d, appointmentCaregiver);
+                VaccineCatalog.getInstance().updateDoses(vaccineName, dosesLeft);
+                BookingCounter.getInstance().removeBooking(d, appointmentCaregiver);
+                WaitlistMatcher.getInstance().slotsOpened(d);
+                WaitlistMatcher.getInstance().dosesAdded(vaccineName);
+            });
+            return new Cancellation(Status.CANCELLED, vaccineName, d, appointmentCaregiver);
+        } catch (SQLException e) {
+            try {
+                cm.rollbackTransaction();
+            } catch (SQLException ex) {
+                // the connection is rolled back when it goes back to the pool anyway
+            }
+            // conflicts keep their SQLState, so that they are retried
+            throw TransactionRetry.isConflict(e) ? e : new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static Cancellation failed(Status status) {
+        return new Cancellation(status, null, null, null);
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isCancelled() {
+        return status == Status.CANCELLED;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    @Override
+    public String toString() {
+        return "Cancellation{" +
+                "status=" + status +
+                ", vaccine='" + vaccine + '\'' +
+                ", time=" + time +
+                ", caregiver='" + caregiver + '\'' +
+                '}';
+    }
+}
@@ -1,12 +1,23 @@
 package scheduler.model;
 
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.UsernameRegistry;
 import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.db.Queries;
+import scheduler.util.LoginVerifier;
+import scheduler.util.WaitlistMatcher;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.sql.*;
-import java.util.Arrays;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Caregiver {
+    // the longest date range a single upload may cover
+    public static final int MAX_UPLOAD_DAYS = 366;
+
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -36,36 +47,69 @@ public class Caregiver {
         return hash;
     }
 
+    /**
+     * Inserts this caregiver, throws SQLIntegrityConstraintViolationException if the username is taken.
+     */
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        cm.createConnection();
 
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?); ";
+        String addCaregiver = Queries.ADD_CAREGIVER;
         try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
+            PreparedStatement statement = cm.prepareStatement(addCaregiver);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
-            statement.executeUpdate();
+            cm.executeUpdate(statement);
+            UsernameRegistry.caregivers().add(this.username);
         } catch (SQLException e) {
+            // SQLState class 23 is an integrity constraint violation, here the primary key on Username
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                throw new SQLIntegrityConstraintViolationException();
+            }
             throw new SQLException();
         } finally {
             cm.closeConnection();
         }
     }
 
-    public void viewAppointments() throws SQLException {
+    /**
+     * Writes one page of this caregiver's appointments between from and to (inclusive), ordered by time and ID,
+     * starting after the given cursor. Rows are streamed to out as they are read. Returns the cursor of the next
+     * page, or null if this was the last one.
+     */
+    public AppointmentCursor viewAppointments(Date from, Date to, int pageSize, AppointmentCursor after,
+                                              Writer out) throws SQLException, IOException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String getAppointments = "SELECT ID, Vaccine, Time, Patient FROM Appointments WHERE Caregiver = ?; ";
+        cm.createConnection();
+        // keyset pagination that reads the (Caregiver, Time, ID) index in order
+        String getAppointments = Queries.GET_CAREGIVER_APPOINTMENTS;
         try {
-            PreparedStatement statement = con.prepareStatement(getAppointments);
-            statement.setString(1, this.username);
-            ResultSet rs = statement.executeQuery();
+            PreparedStatement statement = cm.prepareStatement(getAppointments);
+            // one extra row tells us whether there is a next page
+            statement.setInt(1, pageSize + 1);
+            statement.setString(2, this.username);
+            statement.setDate(3, from);
+            statement.setDate(4, to);
+            statement.setDate(5, after.getTime());
+            statement.setDate(6, after.getTime());
+            statement.setInt(7, after.getId());
+            statement.setFetchSize(pageSize + 1);
+            ResultSet rs = cm.executeQuery(statement);
+            AppointmentCursor last = null;
+            int rows = 0;
             while (rs.next()) {
-                System.out.println("id: " + rs.getInt(1) + ", Vaccine: " + rs.getString(2)
-                        + ", Time: " + rs.getDate(3) + ", Patient: " + rs.getString(4));
+                if (rows == pageSize) {
+                    return last;
+                }
+                int id = rs.getInt(1);
+                Date time = rs.getDate(3);
+                out.write("id: " + id + ", Vaccine: " + rs.getString(2)
+                        + ", Time: " + time + ", Patient: " + rs.getString(4) + "\n");
+                last = new AppointmentCursor(time, id);
+                rows++;
             }
+            return null;
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -75,21 +119,96 @@ public class Caregiver {
 
     public void uploadAvailability(Date d) throws SQLException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        cm.createConnection();
 
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?); ";
+        String addAvailability = Queries.ADD_AVAILABILITY;
         try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
+            PreparedStatement statement = cm.prepareStatement(addAvailability);
             statement.setDate(1, d);
             statement.setString(2, this.username);
-            statement.executeUpdate();
+            cm.executeUpdate(statement);
+            ConnectionManager.afterCommit(() -> {
+                AvailabilityIndex.getInstance().addAvailability(d, this.username);
+                WaitlistMatcher.getInstance().slotsOpened(d);
+            });
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Uploads availability for every date from start to end (inclusive) that matches the recurrence, using one
+     * batched insert in a single transaction. Dates the caregiver already uploaded are skipped instead of failing
+     * the whole upload.
+     */
+    public AvailabilityUpload uploadAvailability(Date start, Date end, Recurrence recurrence) throws SQLException {
+        List<LocalDate> dates = new ArrayList<>();
+        for (LocalDate date = start.toLocalDate(); !date.isAfter(end.toLocalDate()); date = date.plusDays(1)) {
+            if (recurrence.includes(date)) {
+                dates.add(date);
+            }
+        }
+        if (dates.isEmpty()) {
+            return new AvailabilityUpload(0, 0);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        // inserts nothing (update count 0) when the row already exists
+        String addAvailability = Queries.ADD_AVAILABILITY_IF_ABSENT;
+        try {
+            cm.beginTransaction();
+            PreparedStatement statement = cm.prepareStatement(addAvailability);
+            for (LocalDate date : dates) {
+                Date d = Date.valueOf(date);
+                statement.setDate(1, d);
+                statement.setString(2, this.username);
+                statement.setDate(3, d);
+                statement.setString(4, this.username);
+                statement.addBatch();
+            }
+            int[] counts = cm.executeBatch(statement);
+            cm.commitTransaction();
+
+            List<Date> added = new ArrayList<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    added.add(Date.valueOf(dates.get(i)));
+                }
+            }
+            ConnectionManager.afterCommit(() -> {
+                for (Date d : added) {
+                    AvailabilityIndex.getInstance().addAvailability(d, this.username);
+                    WaitlistMatcher.getInstance().slotsOpened(d);
+                }
+            });
+            int inserted = added.size();
+            return new AvailabilityUpload(inserted, dates.size() - inserted);
         } catch (SQLException e) {
+            rollbackQuietly(cm);
             throw new SQLException();
         } finally {
             cm.closeConnection();
         }
     }
 
+    private static void rollbackQuietly(ConnectionManager cm) {
+        try {
+            cm.rollbackTransaction();
+        } catch (SQLException e) {
+            // the connection is rolled back when it goes back to the pool anyway
+        }
+    }
+
+    /**
+     * Cancels one of this caregiver's appointments, giving its slot and dose back. See Cancellation for the outcomes.
+     */
+    public Cancellation cancel(int appointmentId) throws SQLException {
+        return Cancellation.cancel(appointmentId, null, this.username);
+    }
+
     public static class CaregiverBuilder {
         private final String username;
         private final byte[] salt;
@@ -119,31 +238,55 @@ public class Caregiver {
 
         public Caregiver get() throws SQLException {
             ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            cm.createConnection();
 
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?; ";
+            String getCaregiver = Queries.GET_CAREGIVER;
+            byte[] salt;
+            byte[] storedHash;
             try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
+                PreparedStatement statement = cm.prepareStatement(getCaregiver);
                 statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
+                ResultSet resultSet = cm.executeQuery(statement);
+                if (!resultSet.next()) {
+                    return null;
                 }
-                return null;
+                salt = resultSet.getBytes("Salt");
+                storedHash = resultSet.getBytes("Hash");
             } catch (SQLException e) {
                 throw new SQLException();
+            } finally {
+                // the connection goes back to the pool before the slow part, the hashing
+                cm.closeConnection();
+            }
+            // check if the password matches, on the bounded login pool (throws RejectedExecutionException when busy)
+            byte[] hash = LoginVerifier.getInstance().verify(password, salt, storedHash);
+            if (hash == null) {
+                return null;
+            }
+            // the stored hash was made with outdated parameters, replace it while we still have the password
+            if (hash != storedHash) {
+                hash = saveRehash(hash, storedHash);
+            }
+            this.salt = salt;
+            this.hash = hash;
+            return new Caregiver(this);
+        }
+
+        private byte[] saveRehash(byte[] newHash, byte[] oldHash) {
+            ConnectionManager cm = new ConnectionManager();
+            cm.createConnection();
+
+            // only replaces the hash we verified, in case the password was changed in the meantime
+            String updateHash = Queries.UPDATE_CAREGIVER_HASH;
+            try {
+                PreparedStatement statement = cm.prepareStatement(updateHash);
+                statement.setBytes(1, newHash);
+                statement.setString(2, this.username);
+                statement.setBytes(3, oldHash);
+                return cm.executeUpdate(statement) == 1 ? newHash : oldHash;
+            } catch (SQLException e) {
+                // the old hash still works, so a failed upgrade doesn't fail the login
+                return oldHash;
             } finally {
                 cm.closeConnection();
             }
@@ -0,0 +1,93 @@
+package scheduler.model;
+
+import scheduler.cache.BookingCounter;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How Patient.reserve() chooses among the caregivers available on a date. The strategy orders the candidates by
+ * preference; reserve() claims the first slot it can, so a candidate whose slot was taken concurrently simply
+ * falls through to the next one. Chosen with -Dscheduler.reserve.caregiverSelection=alphabetical (the default),
+ * least-booked or round-robin.
+ */
+public enum CaregiverSelection {
+    // the first caregiver by username, deterministic
+    ALPHABETICAL,
+    // the caregiver with the fewest appointments in the week (Monday to Sunday) of the date, ties broken by
+    // username. Not just that day: a caregiver has one slot per day, so everyone still available has 0 bookings
+    LEAST_BOOKED,
+    // each reservation starts one caregiver further down the list than the reservation before it, on any date
+    ROUND_ROBIN;
+
+    private static final CaregiverSelection configured =
+            parse(System.getProperty("scheduler.reserve.caregiverSelection", "alphabetical"));
+
+    // the starting position of the next reservation, for ROUND_ROBIN
+    private static final AtomicInteger turn = new AtomicInteger();
+
+    public static CaregiverSelection getConfigured() {
+        return configured;
+    }
+
+    // Parses the strategy name as written in the property, e.g. "least-booked"
+    public static CaregiverSelection parse(String name) {
+        return CaregiverSelection.valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * Loads whatever order() needs for the date. Called before reserve() takes its connection, since loading
+     * may need a connection of its own.
+     */
+    void prepare(Date d) throws SQLException {
+        if (this == LEAST_BOOKED) {
+            for (LocalDate date : week(d)) {
+                BookingCounter.getInstance().getBookings(Date.valueOf(date));
+            }
+        }
+    }
+
+    /**
+     * Returns the candidates, sorted by username, in the order they should be tried.
+     */
+    List<String> order(Date d, List<String> candidates) {
+        switch (this) {
+            case LEAST_BOOKED: {
+                Map<String, Integer> bookings = new HashMap<>();
+                for (LocalDate date : week(d)) {
+                    BookingCounter.getInstance().peekBookings(Date.valueOf(date)).forEach(
+                            (caregiver, count) -> bookings.merge(caregiver, count, Integer::sum));
+                }
+                List<String> ordered = new ArrayList<>(candidates);
+                // a stable sort, so equally booked caregivers stay in username order
+                ordered.sort(Comparator.comparingInt(caregiver -> bookings.getOrDefault(caregiver, 0)));
+                return ordered;
+            }
+            case ROUND_ROBIN: {
+                List<String> ordered = new ArrayList<>(candidates);
+                Collections.rotate(ordered, -Math.floorMod(turn.getAndIncrement(), ordered.size()));
+                return ordered;
+            }
+            default:
+                return candidates;
+        }
+    }
+
+    private static List<LocalDate> week(Date d) {
+        LocalDate monday = d.toLocalDate().with(DayOfWeek.MONDAY);
+        List<LocalDate> week = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            week.add(monday.plusDays(i));
+        }
+        return week;
+    }
+}
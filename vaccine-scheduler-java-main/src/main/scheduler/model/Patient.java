@@ -1,10 +1,19 @@
 package scheduler.model;
 
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.BookingCounter;
+import scheduler.cache.UsernameRegistry;
+import scheduler.cache.VaccineCatalog;
 import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.db.Queries;
+import scheduler.db.TransactionRetry;
+import scheduler.util.LoginVerifier;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.sql.*;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Patient {
     private final String username;
@@ -36,36 +45,69 @@ public class Patient {
         return hash;
     }
 
+    /**
+     * Inserts this patient, throws SQLIntegrityConstraintViolationException if the username is taken.
+     */
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        cm.createConnection();
 
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?); ";
+        String addPatient = Queries.ADD_PATIENT;
         try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
+            PreparedStatement statement = cm.prepareStatement(addPatient);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
-            statement.executeUpdate();
+            cm.executeUpdate(statement);
+            UsernameRegistry.patients().add(this.username);
         } catch (SQLException e) {
+            // SQLState class 23 is an integrity constraint violation, here the primary key on Username
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                throw new SQLIntegrityConstraintViolationException();
+            }
             throw new SQLException();
         } finally {
             cm.closeConnection();
         }
     }
 
-    public void viewAppointments() throws SQLException {
+    /**
+     * Writes one page of this patient's appointments between from and to (inclusive), ordered by time and ID,
+     * starting after the given cursor. Rows are streamed to out as they are read. Returns the cursor of the next
+     * page, or null if this was the last one.
+     */
+    public AppointmentCursor viewAppointments(Date from, Date to, int pageSize, AppointmentCursor after,
+                                              Writer out) throws SQLException, IOException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String getAppointments = "SELECT ID, Vaccine, Time, Caregiver FROM Appointments WHERE Patient = ?; ";
+        cm.createConnection();
+        // keyset pagination that reads the (Patient, Time, ID) index in order
+        String getAppointments = Queries.GET_PATIENT_APPOINTMENTS;
         try {
-            PreparedStatement statement = con.prepareStatement(getAppointments);
-            statement.setString(1, this.username);
-            ResultSet rs = statement.executeQuery();
+            PreparedStatement statement = cm.prepareStatement(getAppointments);
+            // one extra row tells us whether there is a next page
+            statement.setInt(1, pageSize + 1);
+            statement.setString(2, this.username);
+            statement.setDate(3, from);
+            statement.setDate(4, to);
+            statement.setDate(5, after.getTime());
+            statement.setDate(6, after.getTime());
+            statement.setInt(7, after.getId());
+            statement.setFetchSize(pageSize + 1);
+            ResultSet rs = cm.executeQuery(statement);
+            AppointmentCursor last = null;
+            int rows = 0;
             while (rs.next()) {
-                System.out.println("id: " + rs.getInt(1) + ", Vaccine: " + rs.getString(2)
-                    + ", Time: " + rs.getDate(3) + ", Caregiver: " + rs.getString(4));
+                if (rows == pageSize) {
+                    return last;
+                }
+                int id = rs.getInt(1);
+                Date time = rs.getDate(3);
+                out.write("id: " + id + ", Vaccine: " + rs.getString(2)
+                        + ", Time: " + time + ", Caregiver: " + rs.getString(4) + "\n");
+                last = new AppointmentCursor(time, id);
+                rows++;
             }
+            return null;
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -73,41 +115,122 @@ public class Patient {
         }
     }
 
-    public void reserve(Date d, Vaccine vaccine) throws SQLException {
+    /**
+     * Reserves an appointment on the given date in a single transaction: one dose of the vaccine is taken with a
+     * conditional server-side update, the slot of the caregiver preferred by the configured CaregiverSelection is
+     * claimed by deleting their Availabilities row, and the appointment is inserted. If any step loses a race against a concurrent
+     * reservation the whole transaction is rolled back and the returned Reservation says why; if the database aborts
+     * it because of a concurrent one, it is retried by TransactionRetry. A vaccine that the VaccineCatalog has
+     * cached as out of stock fails with NO_DOSES before any of this.
+     */
+    public Reservation reserve(Date d, Vaccine vaccine) throws SQLException {
+        // fail fast on a vaccine the catalog knows to be out of stock, without taking a connection
+        Integer cachedDoses = VaccineCatalog.getInstance().peekDoses(vaccine.getVaccineName());
+        if (cachedDoses != null && cachedDoses < 1) {
+            return Reservation.failed(Reservation.Status.NO_DOSES);
+        }
+        return TransactionRetry.getInstance().run(() -> tryReserve(d, vaccine));
+    }
+
+    private Reservation tryReserve(Date d, Vaccine vaccine) throws SQLException {
+        CaregiverSelection selection = CaregiverSelection.getConfigured();
+        selection.prepare(d);
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String checkAvailability = "SELECT Username FROM Availabilities WHERE Time = ?; ";
-        String createAppointment = "INSERT INTO Appointments (Vaccine, Time, Patient, Caregiver) " +
-                "VALUES (? , ?, ?, ?); ";
-        try{
-            PreparedStatement statement1 = con.prepareStatement(checkAvailability);
+        cm.createConnection();
+        String getCandidates = Queries.GET_RESERVE_CANDIDATES;
+        String takeDose = Queries.takeDose(ConnectionManager.getDialect());
+        String claimSlot = Queries.CLAIM_SLOT;
+        String createAppointment = Queries.CREATE_APPOINTMENT;
+        try {
+            cm.beginTransaction();
+            List<String> candidates = new ArrayList<>();
+            PreparedStatement statement1 = cm.prepareStatement(getCandidates);
             statement1.setDate(1, d);
-            ResultSet rs = statement1.executeQuery();
-            if (!rs.next()) {
-                System.out.println("Failed to schedule Appointment. The given date is unavailable. " +
-                        "Please try again.");
-            } else {
-                try {
-                    vaccine.decreaseAvailableDoses(1);
-                } catch (SQLException e) {
-                    System.out.println("Error occurred when creating appointment");
-                    e.printStackTrace();
+            ResultSet rs = cm.executeQuery(statement1);
+            while (rs.next()) {
+                candidates.add(rs.getString(1));
+            }
+            if (candidates.isEmpty()) {
+                cm.rollbackTransaction();
+                return Reservation.failed(Reservation.Status.NO_CAREGIVER);
+            }
+            // taking the dose first locks the vaccine row, so the slot claim below only races other
+            // reservations for the same date
+            PreparedStatement statement2 = cm.prepareStatement(takeDose);
+            statement2.setString(1, vaccine.getVaccineName());
+            ResultSet doses = cm.executeQuery(statement2);
+            if (!doses.next()) {
+                cm.rollbackTransaction();
+                return Reservation.failed(Reservation.Status.NO_DOSES);
+            }
+            int dosesLeft = doses.getInt(1);
+            // a delete count of 0 means another reservation claimed that caregiver first, try the next one
+            String caregiver = null;
+            PreparedStatement statement3 = cm.prepareStatement(claimSlot);
+            for (String candidate : selection.order(d, candidates)) {
+                statement3.setDate(1, d);
+                statement3.setString(2, candidate);
+                if (cm.executeUpdate(statement3) == 1) {
+                    caregiver = candidate;
+                    break;
                 }
-                PreparedStatement statement2 = con.prepareStatement(createAppointment);
-                statement2.setString(1, vaccine.getVaccineName());
-                statement2.setDate(2, d);
-                statement2.setString(3, this.username);
-                statement2.setString(4, rs.getString("Username"));
-                statement2.executeUpdate();
-                System.out.println("Appointment Reserved!");
+                TransactionRetry.getInstance().recordLostRace();
+            }
+            if (caregiver == null) {
+                cm.rollbackTransaction();
+                return Reservation.failed(Reservation.Status.NO_CAREGIVER);
             }
+            PreparedStatement statement4 = cm.prepareStatement(createAppointment, Statement.RETURN_GENERATED_KEYS);
+            statement4.setString(1, vaccine.getVaccineName());
+            statement4.setDate(2, d);
+            statement4.setString(3, this.username);
+            statement4.setString(4, caregiver);
+            cm.executeUpdate(statement4);
+            ResultSet keys = statement4.getGeneratedKeys();
+            if (!keys.next()) {
+                throw new SQLException();
+            }
+            int appointmentId = keys.getInt(1);
+            cm.commitTransaction();
+            String booked = caregiver;
+            ConnectionManager.afterCommit(() -> {
+                AvailabilityIndex.getInstance().removeAvailability(d, booked);
+                VaccineCatalog.getInstance().updateDoses(vaccine.getVaccineName(), dosesLeft);
+                BookingCounter.getInstance().addBooking(d, booked);
+            });
+            return Reservation.reserved(appointmentId, caregiver);
         } catch (SQLException e) {
-            throw new SQLException();
+            rollbackQuietly(cm);
+            // conflicts keep their SQLState, so that they are retried
+            throw TransactionRetry.isConflict(e) ? e : new SQLException();
         } finally {
             cm.closeConnection();
         }
     }
 
+    /**
+     * Cancels one of this patient's appointments, giving its slot and dose back. See Cancellation for the outcomes.
+     */
+    public Cancellation cancel(int appointmentId) throws SQLException {
+        return Cancellation.cancel(appointmentId, this.username, null);
+    }
+
+    /**
+     * Puts this patient on the waitlist for the date and vaccine, to be booked by the WaitlistMatcher once a slot
+     * and a dose are free. Returns false if they were already waiting for it.
+     */
+    public boolean joinWaitlist(Date d, Vaccine vaccine) throws SQLException {
+        return Waitlist.join(this.username, d, vaccine.getVaccineName());
+    }
+
+    private static void rollbackQuietly(ConnectionManager cm) {
+        try {
+            cm.rollbackTransaction();
+        } catch (SQLException e) {
+            // the connection is rolled back when it goes back to the pool anyway
+        }
+    }
+
     public static class PatientBuilder {
         private final String username;
         private final byte[] salt;
@@ -137,31 +260,55 @@ public class Patient {
 
         public Patient get() throws SQLException {
             ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            cm.createConnection();
 
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?; ";
+            String getPatient = Queries.GET_PATIENT;
+            byte[] salt;
+            byte[] storedHash;
             try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
+                PreparedStatement statement = cm.prepareStatement(getPatient);
                 statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
+                ResultSet resultSet = cm.executeQuery(statement);
+                if (!resultSet.next()) {
+                    return null;
                 }
-                return null;
+                salt = resultSet.getBytes("Salt");
+                storedHash = resultSet.getBytes("Hash");
             } catch (SQLException e) {
                 throw new SQLException();
+            } finally {
+                // the connection goes back to the pool before the slow part, the hashing
+                cm.closeConnection();
+            }
+            // check if the password matches, on the bounded login pool (throws RejectedExecutionException when busy)
+            byte[] hash = LoginVerifier.getInstance().verify(password, salt, storedHash);
+            if (hash == null) {
+                return null;
+            }
+            // the stored hash was made with outdated parameters, replace it while we still have the password
+            if (hash != storedHash) {
+                hash = saveRehash(hash, storedHash);
+            }
+            this.salt = salt;
+            this.hash = hash;
+            return new Patient(this);
+        }
+
+        private byte[] saveRehash(byte[] newHash, byte[] oldHash) {
+            ConnectionManager cm = new ConnectionManager();
+            cm.createConnection();
+
+            // only replaces the hash we verified, in case the password was changed in the meantime
+            String updateHash = Queries.UPDATE_PATIENT_HASH;
+            try {
+                PreparedStatement statement = cm.prepareStatement(updateHash);
+                statement.setBytes(1, newHash);
+                statement.setString(2, this.username);
+                statement.setBytes(3, oldHash);
+                return cm.executeUpdate(statement) == 1 ? newHash : oldHash;
+            } catch (SQLException e) {
+                // the old hash still works, so a failed upgrade doesn't fail the login
+                return oldHash;
             } finally {
                 cm.closeConnection();
             }
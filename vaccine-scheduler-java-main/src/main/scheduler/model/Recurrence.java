@@ -0,0 +1,31 @@
+package scheduler.model;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+
+/**
+ * Which days of a date range a caregiver publishes availability for.
+ */
+public enum Recurrence {
+    DAILY,
+    WEEKDAYS,
+    WEEKENDS;
+
+    public boolean includes(LocalDate date) {
+        DayOfWeek day = date.getDayOfWeek();
+        boolean weekend = day == DayOfWeek.SATURDAY || day == DayOfWeek.SUNDAY;
+        switch (this) {
+            case WEEKDAYS:
+                return !weekend;
+            case WEEKENDS:
+                return weekend;
+            default:
+                return true;
+        }
+    }
+
+    // Parses the recurrence name as typed in a command, e.g. "weekdays"
+    public static Recurrence parse(String name) {
+        return Recurrence.valueOf(name.toUpperCase());
+    }
+}
@@ -0,0 +1,60 @@
+package scheduler.model;
+
+/**
+ * The outcome of Patient.reserve(). Only a RESERVED reservation carries an appointment ID and caregiver.
+ */
+public class Reservation {
+
+    public enum Status {
+        // the slot was claimed, a dose was taken and the appointment was created
+        RESERVED,
+        // no caregiver is available on the date, or every candidate slot was claimed by a concurrent reservation
+        NO_CAREGIVER,
+        // the vaccine ran out of doses
+        NO_DOSES
+    }
+
+    private final Status status;
+    private final int appointmentId;
+    private final String caregiver;
+
+    private Reservation(Status status, int appointmentId, String caregiver) {
+        this.status = status;
+        this.appointmentId = appointmentId;
+        this.caregiver = caregiver;
+    }
+
+    public static Reservation reserved(int appointmentId, String caregiver) {
+        return new Reservation(Status.RESERVED, appointmentId, caregiver);
+    }
+
+    public static Reservation failed(Status status) {
+        return new Reservation(status, -1, null);
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isReserved() {
+        return status == Status.RESERVED;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    @Override
+    public String toString() {
+        return "Reservation{" +
+                "status=" + status +
+                ", appointmentId=" + appointmentId +
+                ", caregiver='" + caregiver + '\'' +
+                '}';
+    }
+}
@@ -1,13 +1,24 @@
 package scheduler.model;
 
+import scheduler.cache.VaccineCatalog;
 import scheduler.db.ConnectionManager;
+import scheduler.db.Queries;
+import scheduler.db.TransactionRetry;
+import scheduler.util.WaitlistMatcher;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class Vaccine {
+    // SQL Server allows at most 2100 parameters per statement, and every delta takes two
+    private static final int MAX_BATCH_SIZE = 1000;
+
     private final String vaccineName;
     private int availableDoses;
 
@@ -30,17 +41,31 @@ public class Vaccine {
         return availableDoses;
     }
 
+    /**
+     * Inserts this vaccine, throws SQLIntegrityConstraintViolationException if it exists already.
+     */
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        cm.createConnection();
 
-        String addDoses = "INSERT INTO Vaccines VALUES (?, ?); ";
+        String addDoses = Queries.ADD_VACCINE;
         try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
+            PreparedStatement statement = cm.prepareStatement(addDoses);
             statement.setString(1, this.vaccineName);
             statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
+            cm.executeUpdate(statement);
+            int doses = this.availableDoses;
+            ConnectionManager.afterCommit(() -> {
+                VaccineCatalog.getInstance().addVaccine(this.vaccineName, doses);
+                if (doses > 0) {
+                    WaitlistMatcher.getInstance().dosesAdded(this.vaccineName);
+                }
+            });
         } catch (SQLException e) {
+            // SQLState class 23 is an integrity constraint violation, here the primary key on Name
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                throw new SQLIntegrityConstraintViolationException();
+            }
             throw new SQLException();
         } finally {
             cm.closeConnection();
@@ -52,17 +77,25 @@ public class Vaccine {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
-
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        cm.createConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?; ";
+        // the delta is applied on the server, so concurrent updates can't overwrite each other
+        String addDoses = Queries.increaseDoses(ConnectionManager.getDialect());
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
+            PreparedStatement statement = cm.prepareStatement(addDoses);
+            statement.setInt(1, num);
             statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            ResultSet resultSet = cm.executeQuery(statement);
+            if (!resultSet.next()) {
+                throw new SQLException();
+            }
+            int doses = resultSet.getInt(1);
+            this.availableDoses = doses;
+            ConnectionManager.afterCommit(() -> {
+                VaccineCatalog.getInstance().updateDoses(this.vaccineName, doses);
+                WaitlistMatcher.getInstance().dosesAdded(this.vaccineName);
+            });
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -72,24 +105,110 @@ public class Vaccine {
 
     // Decrement the available doses
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
-            throw new IllegalArgumentException("Not enough available doses!");
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses -= num;
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        cm.createConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?; ";
+        // the guard makes the update a no-op instead of letting the count go negative
+        String removeDoses = Queries.decreaseDoses(ConnectionManager.getDialect());
+        boolean updated;
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
+            PreparedStatement statement = cm.prepareStatement(removeDoses);
+            statement.setInt(1, num);
             statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            statement.setInt(3, num);
+            ResultSet resultSet = cm.executeQuery(statement);
+            updated = resultSet.next();
+            if (updated) {
+                int doses = resultSet.getInt(1);
+                this.availableDoses = doses;
+                ConnectionManager.afterCommit(() -> VaccineCatalog.getInstance().updateDoses(this.vaccineName, doses));
+            }
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
             cm.closeConnection();
         }
+        if (!updated) {
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
+    }
+
+    /**
+     * Applies many dose deltas (positive or negative) in one MERGE per chunk of MAX_BATCH_SIZE vaccines.
+     * Returns the new dose count of every vaccine that was updated, keyed case-insensitively because the database
+     * compares names that way and returns them as stored. Vaccines that don't exist, or whose count would go
+     * negative, are left unchanged and are missing from the result.
+     *
+     * All chunks run in one transaction, so the deltas are applied completely or not at all. The vaccines are
+     * updated in name order, so that two calls with overlapping vaccines lock their rows in the same order; a call
+     * that is aborted because of a concurrent transaction anyway is retried as a whole by TransactionRetry.
+     */
+    public static Map<String, Integer> applyDoseDeltas(Map<String, Integer> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        }
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(deltas.entrySet());
+        // the database compares names case-insensitively, and so do the lookups by returned name below
+        Map<String, Integer> byName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        byName.putAll(deltas);
+        entries.sort(Map.Entry.comparingByKey(String.CASE_INSENSITIVE_ORDER));
+        Map<String, Integer> updated = TransactionRetry.getInstance().run(() -> applyChunks(entries));
+        // the caches only learn about the new counts once they are committed
+        ConnectionManager.afterCommit(() -> {
+            for (Map.Entry<String, Integer> entry : updated.entrySet()) {
+                VaccineCatalog.getInstance().updateDoses(entry.getKey(), entry.getValue());
+                // the database may return the name in another case than it was given in
+                Integer delta = byName.get(entry.getKey());
+                if (delta == null || delta > 0) {
+                    WaitlistMatcher.getInstance().dosesAdded(entry.getKey());
+                }
+            }
+        });
+        return updated;
+    }
+
+    private static Map<String, Integer> applyChunks(List<Map.Entry<String, Integer>> entries) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        try {
+            cm.beginTransaction();
+            Map<String, Integer> updated = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int from = 0; from < entries.size(); from += MAX_BATCH_SIZE) {
+                List<Map.Entry<String, Integer>> chunk =
+                        entries.subList(from, Math.min(from + MAX_BATCH_SIZE, entries.size()));
+                String applyDeltas = Queries.applyDoseDeltas(ConnectionManager.getDialect(), chunk.size());
+                PreparedStatement statement = cm.prepareStatement(applyDeltas);
+                int index = 1;
+                for (Map.Entry<String, Integer> entry : chunk) {
+                    statement.setString(index++, entry.getKey());
+                    statement.setInt(index++, entry.getValue());
+                }
+                ResultSet resultSet = cm.executeQuery(statement);
+                while (resultSet.next()) {
+                    updated.put(resultSet.getString(1), resultSet.getInt(2));
+                }
+            }
+            cm.commitTransaction();
+            return updated;
+        } catch (SQLException e) {
+            rollbackQuietly(cm);
+            // conflicts keep their SQLState, so that they are retried
+            throw TransactionRetry.isConflict(e) ? e : new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void rollbackQuietly(ConnectionManager cm) {
+        try {
+            cm.rollbackTransaction();
+        } catch (SQLException e) {
+            // the connection is rolled back when it goes back to the pool anyway
+        }
     }
 
     @Override
@@ -122,25 +241,14 @@ public class Vaccine {
             this.vaccineName = vaccineName;
         }
 
+        // read through the VaccineCatalog, so the dose count may be up to its TTL old
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?; ";
-            try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
-                }
+            Integer doses = VaccineCatalog.getInstance().getDoses(this.vaccineName);
+            if (doses == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.availableDoses = doses;
+            return new Vaccine(this);
         }
     }
 }
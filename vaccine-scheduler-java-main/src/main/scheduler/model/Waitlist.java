@@ -0,0 +1,132 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Queries;
+import scheduler.db.TransactionRetry;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Waitlist table: patients whose reservation failed, waiting to be booked by the WaitlistMatcher.
+ */
+public class Waitlist {
+
+    private Waitlist() {
+    }
+
+    // Adds the patient to the waitlist, returns false if they were already waiting for that date and vaccine
+    static boolean join(String patient, Date d, String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String joinWaitlist = Queries.JOIN_WAITLIST;
+        try {
+            PreparedStatement statement = cm.prepareStatement(joinWaitlist);
+            statement.setString(1, patient);
+            statement.setString(2, vaccineName);
+            statement.setDate(3, d);
+            statement.setString(4, patient);
+            statement.setDate(5, d);
+            statement.setString(6, vaccineName);
+            return cm.executeUpdate(statement) == 1;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Returns up to limit entries with an ID above afterId, oldest first. A non-null date or vaccine name only
+     * returns the entries waiting for that date or vaccine.
+     */
+    public static List<Entry> next(Date d, String vaccineName, int afterId, int limit) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String getEntries = Queries.getWaitlistEntries(d != null, vaccineName != null);
+        try {
+            PreparedStatement statement = cm.prepareStatement(getEntries);
+            int index = 1;
+            statement.setInt(index++, limit);
+            statement.setInt(index++, afterId);
+            if (d != null) {
+                statement.setDate(index++, d);
+            }
+            if (vaccineName != null) {
+                statement.setString(index++, vaccineName);
+            }
+            ResultSet rs = cm.executeQuery(statement);
+            List<Entry> entries = new ArrayList<>();
+            while (rs.next()) {
+                entries.add(new Entry(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getDate(4)));
+            }
+            return entries;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Removes an entry so that it can be booked, in the caller's transaction. Returns false if it is gone already,
+     * i.e. another matcher claimed it first.
+     */
+    public static boolean claim(int id) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String claimEntry = Queries.CLAIM_WAITLIST_ENTRY;
+        try {
+            PreparedStatement statement = cm.prepareStatement(claimEntry);
+            statement.setInt(1, id);
+            if (cm.executeUpdate(statement) == 1) {
+                return true;
+            }
+            TransactionRetry.getInstance().recordLostRace();
+            return false;
+        } catch (SQLException e) {
+            // conflicts keep their SQLState, so that the booking is retried
+            throw TransactionRetry.isConflict(e) ? e : new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public static class Entry {
+        private final int id;
+        private final String patient;
+        private final String vaccine;
+        private final Date time;
+
+        private Entry(int id, String patient, String vaccine, Date time) {
+            this.id = id;
+            this.patient = patient;
+            this.vaccine = vaccine;
+            this.time = time;
+        }
+
+        // Getters
+        public int getId() {
+            return id;
+        }
+
+        public String getPatient() {
+            return patient;
+        }
+
+        public String getVaccine() {
+            return vaccine;
+        }
+
+        public Date getTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package scheduler.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import scheduler.CommandEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the scheduler commands over HTTP, with one CommandEngine per client session.
+ *
+ * POST   /session   creates a session and returns its ID in the body
+ * DELETE /session   ends the session given in the X-Session-Id header
+ * POST   /command   runs the command line in the body for the session given in the X-Session-Id header, and
+ *                   returns the command's output; the X-Command-Status header is "ok" or "error"
+ *
+ * Requests run on virtual threads when the JVM supports them, and on a fixed pool of scheduler.server.threads
+ * platform threads otherwise. Sessions that stay idle for scheduler.server.sessionIdleMillis are dropped.
+ */
+public class SchedulerServer {
+
+    private static final String SESSION_HEADER = "X-Session-Id";
+    private static final String STATUS_HEADER = "X-Command-Status";
+    private static final int workerThreads = Integer.getInteger("scheduler.server.threads", 256);
+    private static final long sessionIdleMillis = Long.getLong("scheduler.server.sessionIdleMillis", 30 * 60 * 1000);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public SchedulerServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = newExecutor();
+        server.createContext("/session", this::handleSession);
+        server.createContext("/command", this::handleCommand);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        sweeper.scheduleAtFixedRate(this::dropIdleSessions, 1, 1, TimeUnit.MINUTES);
+        System.out.println("Scheduler server listening on port " + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        sweeper.shutdownNow();
+        executor.shutdown();
+        sessions.clear();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private void handleSession(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (method.equals("POST")) {
+            String id = UUID.randomUUID().toString();
+            sessions.put(id, new Session());
+            respond(exchange, 201, id);
+        } else if (method.equals("DELETE")) {
+            String id = exchange.getRequestHeaders().getFirst(SESSION_HEADER);
+            if (id == null || sessions.remove(id) == null) {
+                respond(exchange, 404, "Unknown session");
+            } else {
+                respond(exchange, 204, null);
+            }
+        } else {
+            respond(exchange, 405, "Method not allowed");
+        }
+    }
+
+    private void handleCommand(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Method not allowed");
+            return;
+        }
+        String id = exchange.getRequestHeaders().getFirst(SESSION_HEADER);
+        Session session = id == null ? null : sessions.get(id);
+        if (session == null) {
+            respond(exchange, 404, "Unknown session");
+            return;
+        }
+        String line;
+        try (InputStream body = exchange.getRequestBody()) {
+            line = new String(body.readAllBytes(), StandardCharsets.UTF_8).trim();
+        }
+        // trim() leaves Unicode whitespace, which the tokenizer skips
+        String[] tokens = CommandEngine.tokenize(line);
+        if (tokens.length == 0) {
+            respond(exchange, 400, "Please try again!");
+            return;
+        }
+        if (tokens[0].equals("quit")) {
+            sessions.remove(id);
+            exchange.getResponseHeaders().set(STATUS_HEADER, "ok");
+            respond(exchange, 200, "Bye!\n");
+            return;
+        }
+        boolean ok;
+        String output;
+        // a session runs one command at a time, a lock (rather than synchronized) doesn't pin a virtual thread
+        // while the command waits on the database
+        session.lastUsed = System.currentTimeMillis();
+        session.lock.lock();
+        try {
+            session.buffer.reset();
+            ok = session.engine.execute(tokens);
+            session.out.flush();
+            output = session.buffer.toString(StandardCharsets.UTF_8);
+            session.lastUsed = System.currentTimeMillis();
+        } finally {
+            session.lock.unlock();
+        }
+        exchange.getResponseHeaders().set(STATUS_HEADER, ok ? "ok" : "error");
+        respond(exchange, 200, output);
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private void dropIdleSessions() {
+        long cutoff = System.currentTimeMillis() - sessionIdleMillis;
+        // a session that is running a command is in use however long ago the command started
+        sessions.values().removeIf(session -> session.lastUsed < cutoff && !session.lock.isLocked());
+    }
+
+    // Uses Executors.newVirtualThreadPerTaskExecutor() when the JVM has it (Java 21+)
+    private static ExecutorService newExecutor() {
+        try {
+            Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreads.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(workerThreads);
+        }
+    }
+
+    private static class Session {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final PrintStream out = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+        private final CommandEngine engine = new CommandEngine(out, null, true);
+        private volatile long lastUsed = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,48 @@
+package scheduler.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Reads the scheduler's settings from a properties file. Every class looks its settings up as -Dscheduler.* system
+ * properties, so the file's entries are copied into the system properties, except those that were already given
+ * with -D, which win over the file.
+ *
+ * The file is the one named by -Dscheduler.config, or scheduler.properties in the working directory if there is
+ * one. load() has to run before the classes that read the settings are initialized, i.e. first thing in main().
+ */
+public class Config {
+
+    public static final String DEFAULT_FILE = "scheduler.properties";
+
+    private Config() {
+    }
+
+    /**
+     * Loads the configured file and returns it, or returns null if none was configured and there is no
+     * scheduler.properties.
+     */
+    public static Path load() throws IOException {
+        String configured = System.getProperty("scheduler.config");
+        Path file = Paths.get(configured != null ? configured : DEFAULT_FILE);
+        // only a file that was asked for has to exist
+        if (configured == null && !Files.isRegularFile(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        for (String name : properties.stringPropertyNames()) {
+            if (System.getProperty(name) == null) {
+                System.setProperty(name, properties.getProperty(name).trim());
+            }
+        }
+        return file;
+    }
+}
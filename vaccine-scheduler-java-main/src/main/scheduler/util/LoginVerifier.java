@@ -0,0 +1,127 @@
+package scheduler.util;
+
+import scheduler.metrics.LatencyRecorder;
+import scheduler.metrics.Metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs password verification for logins on a dedicated pool with one thread per core and a bounded queue.
+ *
+ * Hashing is CPU-bound, so more threads than cores only add contention. When the queue is full a login is turned
+ * away at once with a RejectedExecutionException ("busy, retry") instead of piling up behind the others. The queue
+ * holds -Dscheduler.login.queueSize logins (default 16 per core).
+ */
+public class LoginVerifier {
+
+    private static final int threads = Runtime.getRuntime().availableProcessors();
+    private static final int queueSize = Integer.getInteger("scheduler.login.queueSize", threads * 16);
+
+    private static final LoginVerifier instance = new LoginVerifier(threads, queueSize);
+
+    private final ThreadPoolExecutor executor;
+    // also listed with the other timers as login.verify and login.queue
+    private final LatencyRecorder verifyLatency = Metrics.getInstance().timer("login.verify").getLatency();
+    private final LatencyRecorder queueLatency = Metrics.getInstance().timer("login.queue").getLatency();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private LoginVerifier(int threads, int queueSize) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "login-verifier-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static LoginVerifier getInstance() {
+        return instance;
+    }
+
+    /**
+     * Checks the password against the stored hash on the verification pool and waits for the answer.
+     * Returns null if the password doesn't match. Otherwise returns the hash to keep: the stored one, or a new one
+     * if the stored hash was made with outdated parameters.
+     *
+     * @throws RejectedExecutionException if too many logins are already waiting
+     */
+    public byte[] verify(String password, byte[] salt, byte[] stored) {
+        long submitted = System.nanoTime();
+        Future<byte[]> result;
+        try {
+            result = executor.submit(() -> {
+                long start = System.nanoTime();
+                queueLatency.record(start - submitted);
+                try {
+                    PasswordHasher hasher = PasswordHasher.getInstance();
+                    if (!hasher.verify(password, salt, stored)) {
+                        return null;
+                    }
+                    return hasher.needsRehash(stored) ? hasher.hash(password, salt) : stored;
+                } finally {
+                    verifyLatency.recordSince(start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while verifying password");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Getters
+    public int getThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getQueueCapacity() {
+        return queueSize;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    // time spent hashing
+    public LatencyRecorder getVerifyLatency() {
+        return verifyLatency;
+    }
+
+    // time spent waiting in the queue for a free thread
+    public LatencyRecorder getQueueLatency() {
+        return queueLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "LoginVerifier{" +
+                "threads=" + getThreadCount() +
+                ", queueDepth=" + getQueueDepth() + "/" + getQueueCapacity() +
+                ", rejected=" + getRejectedCount() +
+                ", verify=[" + verifyLatency + "]" +
+                ", queued=[" + queueLatency + "]" +
+                '}';
+    }
+}
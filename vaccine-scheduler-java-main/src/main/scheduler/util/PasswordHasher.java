@@ -0,0 +1,229 @@
+package scheduler.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PBKDF2 password hashing with configurable parameters.
+ *
+ * Hashes are stored in a versioned format that carries their own parameters:
+ *
+ *     [format version: 1 byte][algorithm: 1 byte][iterations: 4 bytes][key length in bits: 2 bytes][hash]
+ *
+ * so the parameters can be raised at any time: old hashes still verify, and needsRehash() tells the login path to
+ * replace them. Hashes written before this format (PBKDF2WithHmacSHA1, 10 iterations, 16-bit key, zero-padded
+ * to 16 bytes) are recognised as legacy hashes.
+ *
+ * The parameters come from -Dscheduler.hash.algorithm, -Dscheduler.hash.iterations and -Dscheduler.hash.keyLength.
+ * If -Dscheduler.hash.targetMillis is set instead of the iteration count, the iteration count is calibrated at
+ * startup so that one hash takes about that long on the current hardware.
+ */
+public class PasswordHasher {
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    // indexed by the algorithm byte of the stored format, 0 is unused
+    private static final String[] ALGORITHMS = {null, "PBKDF2WithHmacSHA1", "PBKDF2WithHmacSHA256",
+            "PBKDF2WithHmacSHA512"};
+
+    // parameters of hashes stored before the versioned format
+    private static final String LEGACY_ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int LEGACY_ITERATIONS = 10;
+    private static final int LEGACY_KEY_LENGTH = 16;
+
+    private static final String DEFAULT_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int DEFAULT_ITERATIONS = 60000;
+    private static final int DEFAULT_KEY_LENGTH = 256;
+
+    // SecretKeyFactory.getInstance() does a provider lookup every time and factories aren't thread-safe,
+    // so every thread keeps its own per algorithm
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> factories = ThreadLocal.withInitial(HashMap::new);
+
+    private static volatile PasswordHasher instance = null;
+
+    private final String algorithm;
+    private final byte algorithmId;
+    private final int iterations;
+    private final int keyLength;
+
+    public PasswordHasher(String algorithm, int iterations, int keyLength) {
+        this.algorithmId = algorithmId(algorithm);
+        if (iterations <= 0 || keyLength <= 0 || keyLength % 8 != 0 || keyLength > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid hash parameters!");
+        }
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.keyLength = keyLength;
+    }
+
+    // Returns the process-wide hasher configured from the scheduler.hash.* system properties
+    public static PasswordHasher getInstance() {
+        PasswordHasher hasher = instance;
+        if (hasher == null) {
+            synchronized (PasswordHasher.class) {
+                if (instance == null) {
+                    instance = fromSystemProperties();
+                }
+                hasher = instance;
+            }
+        }
+        return hasher;
+    }
+
+    private static PasswordHasher fromSystemProperties() {
+        String algorithm = System.getProperty("scheduler.hash.algorithm", DEFAULT_ALGORITHM);
+        int keyLength = Integer.getInteger("scheduler.hash.keyLength", DEFAULT_KEY_LENGTH);
+        Integer iterations = Integer.getInteger("scheduler.hash.iterations");
+        Long targetMillis = Long.getLong("scheduler.hash.targetMillis");
+        if (iterations == null && targetMillis != null) {
+            iterations = calibrate(algorithm, keyLength, targetMillis);
+        }
+        return new PasswordHasher(algorithm, iterations == null ? DEFAULT_ITERATIONS : iterations, keyLength);
+    }
+
+    // Hashes the password with this hasher's parameters, in the versioned format
+    public byte[] hash(String password, byte[] salt) {
+        byte[] hash = pbkdf2(algorithm, password, salt, iterations, keyLength);
+        return ByteBuffer.allocate(HEADER_LENGTH + hash.length)
+                .put(FORMAT_VERSION)
+                .put(algorithmId)
+                .putInt(iterations)
+                .putShort((short) keyLength)
+                .put(hash)
+                .array();
+    }
+
+    // Checks a password against a stored hash in either the versioned or the legacy format
+    public boolean verify(String password, byte[] salt, byte[] stored) {
+        if (stored == null) {
+            return false;
+        }
+        if (!isVersioned(stored)) {
+            byte[] calculated = pbkdf2(LEGACY_ALGORITHM, password, salt, LEGACY_ITERATIONS, LEGACY_KEY_LENGTH);
+            // legacy hashes are zero-padded by their BINARY(16) column
+            return MessageDigest.isEqual(Util.trim(stored), Util.trim(calculated));
+        }
+        ByteBuffer header = ByteBuffer.wrap(stored);
+        header.get();
+        String storedAlgorithm = ALGORITHMS[header.get()];
+        int storedIterations = header.getInt();
+        int storedKeyLength = header.getShort();
+        byte[] calculated = pbkdf2(storedAlgorithm, password, salt, storedIterations, storedKeyLength);
+        byte[] hash = Arrays.copyOfRange(stored, HEADER_LENGTH, HEADER_LENGTH + storedKeyLength / 8);
+        return MessageDigest.isEqual(hash, calculated);
+    }
+
+    // True if the stored hash was made with other parameters than this hasher's, and should be replaced
+    public boolean needsRehash(byte[] stored) {
+        if (stored == null || !isVersioned(stored)) {
+            return true;
+        }
+        ByteBuffer header = ByteBuffer.wrap(stored);
+        header.get();
+        return header.get() != algorithmId || header.getInt() != iterations || header.getShort() != keyLength;
+    }
+
+    private static boolean isVersioned(byte[] stored) {
+        if (stored.length <= HEADER_LENGTH || stored[0] != FORMAT_VERSION) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.wrap(stored);
+        header.get();
+        byte id = header.get();
+        int storedIterations = header.getInt();
+        int storedKeyLength = header.getShort();
+        return id > 0 && id < ALGORITHMS.length && storedIterations > 0 && storedKeyLength > 0
+                && storedKeyLength % 8 == 0 && stored.length >= HEADER_LENGTH + storedKeyLength / 8;
+    }
+
+    /**
+     * Finds the iteration count for which one hash with the given algorithm and key length takes about
+     * targetMillis on this machine.
+     */
+    public static int calibrate(String algorithm, int keyLength, long targetMillis) {
+        algorithmId(algorithm);
+        byte[] salt = Util.generateSalt();
+        int probe = 1000;
+        // warm up the JIT for a while before timing anything, cold runs are many times slower
+        long warmUntil = System.nanoTime() + 500_000_000L;
+        while (System.nanoTime() < warmUntil) {
+            pbkdf2(algorithm, "calibration", salt, probe, keyLength);
+        }
+        // grow the probe until one run takes at least 50 ms, so the measurement isn't dominated by noise
+        while (time(algorithm, salt, probe, keyLength) < 50_000_000L && probe < Integer.MAX_VALUE / 2) {
+            probe *= 2;
+        }
+        // take the fastest of a few runs, anything slower was disturbed by something else
+        long elapsed = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            elapsed = Math.min(elapsed, time(algorithm, salt, probe, keyLength));
+        }
+        double iterationsPerMilli = probe / (elapsed / 1e6);
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, iterationsPerMilli * targetMillis));
+    }
+
+    private static long time(String algorithm, byte[] salt, int iterations, int keyLength) {
+        long start = System.nanoTime();
+        pbkdf2(algorithm, "calibration", salt, iterations, keyLength);
+        return System.nanoTime() - start;
+    }
+
+    private static byte[] pbkdf2(String algorithm, String password, byte[] salt, int iterations, int keyLength) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength);
+        try {
+            return factory(algorithm).generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
+            throw new IllegalStateException();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static SecretKeyFactory factory(String algorithm) {
+        return factories.get().computeIfAbsent(algorithm, name -> {
+            try {
+                return SecretKeyFactory.getInstance(name);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException();
+            }
+        });
+    }
+
+    private static byte algorithmId(String algorithm) {
+        for (byte id = 1; id < ALGORITHMS.length; id++) {
+            if (ALGORITHMS[id].equals(algorithm)) {
+                return id;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported hash algorithm: " + algorithm);
+    }
+
+    // Getters
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    @Override
+    public String toString() {
+        return "PasswordHasher{" +
+                "algorithm='" + algorithm + '\'' +
+                ", iterations=" + iterations +
+                ", keyLength=" + keyLength +
+                '}';
+    }
+}
@@ -1,18 +1,14 @@
 package scheduler.util;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
+import scheduler.metrics.Metrics;
+import scheduler.metrics.Timer;
+
 import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.util.Arrays;
 
 public class Util {
 
-    // constants for handling password
-    private static final int HASH_STRENGTH = 10;
-    private static final int KEY_LENGTH = 16;
+    private static final Timer hashTimer = Metrics.getInstance().timer("password.hash");
 
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
@@ -23,19 +19,13 @@ public class Util {
     }
 
     public static byte[] generateHash(String password, byte[] salt) {
-        // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
-
-        // Generate the hash
-        SecretKeyFactory factory = null;
-        byte[] hash = null;
+        // the hash parameters are configured in PasswordHasher, and stored along with the hash
+        long start = System.nanoTime();
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-            throw new IllegalStateException();
+            return PasswordHasher.getInstance().hash(password, salt);
+        } finally {
+            hashTimer.recordSince(start);
         }
-        return hash;
     }
 
     public static byte[] trim(byte[] bytes)
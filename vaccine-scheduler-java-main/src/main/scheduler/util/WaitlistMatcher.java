@@ -0,0 +1,213 @@
+package scheduler.util;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.BookingCounter;
+import scheduler.cache.VaccineCatalog;
+import scheduler.db.ConnectionManager;
+import scheduler.db.TransactionRetry;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.Vaccine;
+import scheduler.model.Waitlist;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Books waitlisted patients in the background.
+ *
+ * The model classes report when slots open up on a date (uploaded availability, cancellations) or a vaccine gets
+ * more doses. The matcher thread then goes through the entries waiting for that date or vaccine in FIFO order,
+ * batchSize at a time, and books each one with Patient.reserve() in a transaction that also removes the entry, so
+ * an entry is either booked and gone or still waiting. A date stops being matched as soon as it runs out of
+ * caregivers, and a vaccine as soon as it runs out of doses.
+ *
+ * Events are only kept as the set of dates and vaccines to look at, so a burst of uploads costs one pass. Changes
+ * made by other processes, or events that fire before their batch transaction commits, are picked up by a full
+ * sweep every sweepSeconds.
+ *
+ * Configured with -Dscheduler.waitlist.enabled (true), -Dscheduler.waitlist.batchSize (100) and
+ * -Dscheduler.waitlist.sweepSeconds (60).
+ */
+public class WaitlistMatcher implements Runnable {
+
+    private static final boolean enabled =
+            Boolean.parseBoolean(System.getProperty("scheduler.waitlist.enabled", "true"));
+    private static final int batchSize = Integer.getInteger("scheduler.waitlist.batchSize", 100);
+    private static final long sweepMillis = Long.getLong("scheduler.waitlist.sweepSeconds", 60) * 1000;
+
+    private static final WaitlistMatcher instance = new WaitlistMatcher();
+
+    private final Object lock = new Object();
+    // guarded by lock
+    private final Set<LocalDate> openedDates = new HashSet<>();
+    private final Set<String> restockedVaccines = new HashSet<>();
+    private Thread thread = null;
+
+    private final AtomicLong booked = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+
+    private WaitlistMatcher() {
+    }
+
+    public static WaitlistMatcher getInstance() {
+        return instance;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Starts the matcher thread, does nothing if it is disabled or running already
+    public void start() {
+        synchronized (lock) {
+            if (!enabled || thread != null) {
+                return;
+            }
+            thread = new Thread(this, "waitlist-matcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Called after availability on the date has been committed
+    public void slotsOpened(Date d) {
+        synchronized (lock) {
+            if (thread != null && openedDates.add(d.toLocalDate())) {
+                lock.notify();
+            }
+        }
+    }
+
+    // Called after doses of the vaccine have been committed
+    public void dosesAdded(String vaccineName) {
+        synchronized (lock) {
+            if (thread != null && restockedVaccines.add(vaccineName)) {
+                lock.notify();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long nextSweep = System.currentTimeMillis() + sweepMillis;
+        while (!Thread.currentThread().isInterrupted()) {
+            Set<LocalDate> dates;
+            Set<String> vaccines;
+            boolean sweep;
+            synchronized (lock) {
+                try {
+                    while (openedDates.isEmpty() && restockedVaccines.isEmpty()
+                            && System.currentTimeMillis() < nextSweep) {
+                        lock.wait(Math.max(1, nextSweep - System.currentTimeMillis()));
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                dates = new HashSet<>(openedDates);
+                vaccines = new HashSet<>(restockedVaccines);
+                openedDates.clear();
+                restockedVaccines.clear();
+                sweep = System.currentTimeMillis() >= nextSweep;
+            }
+            try {
+                for (LocalDate date : dates) {
+                    match(Date.valueOf(date), null);
+                }
+                for (String vaccine : vaccines) {
+                    match(null, vaccine);
+                }
+                if (sweep) {
+                    match(null, null);
+                    nextSweep = System.currentTimeMillis() + sweepMillis;
+                }
+            } catch (SQLException e) {
+                // the entries are still waiting, the next event or sweep tries them again
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Tries to book the entries waiting for the date, for the vaccine, or (both null) all of them, oldest first.
+     */
+    private void match(Date d, String vaccineName) throws SQLException {
+        Set<LocalDate> fullDates = new HashSet<>();
+        Set<String> emptyVaccines = new HashSet<>();
+        int afterId = 0;
+        List<Waitlist.Entry> entries;
+        do {
+            entries = Waitlist.next(d, vaccineName, afterId, batchSize);
+            for (Waitlist.Entry entry : entries) {
+                afterId = entry.getId();
+                if (fullDates.contains(entry.getTime().toLocalDate()) || emptyVaccines.contains(entry.getVaccine())) {
+                    continue;
+                }
+                Reservation.Status status = TransactionRetry.getInstance().run(() -> book(entry));
+                if (status == Reservation.Status.NO_CAREGIVER) {
+                    if (d != null) {
+                        return;
+                    }
+                    fullDates.add(entry.getTime().toLocalDate());
+                } else if (status == Reservation.Status.NO_DOSES) {
+                    if (vaccineName != null) {
+                        return;
+                    }
+                    emptyVaccines.add(entry.getVaccine());
+                }
+            }
+        } while (entries.size() == batchSize);
+    }
+
+    // Claims and books one entry in a single transaction, returns null if another matcher claimed it first
+    private Reservation.Status book(Waitlist.Entry entry) throws SQLException {
+        attempts.incrementAndGet();
+        ConnectionManager.beginBoundTransaction();
+        try {
+            if (!Waitlist.claim(entry.getId())) {
+                ConnectionManager.rollbackBoundTransaction();
+                return null;
+            }
+            Patient patient = new Patient.PatientBuilder(entry.getPatient(), null, null).build();
+            Vaccine vaccine = new Vaccine.VaccineBuilder(entry.getVaccine(), 0).build();
+            Reservation reservation = patient.reserve(entry.getTime(), vaccine);
+            if (reservation.isReserved()) {
+                ConnectionManager.commitBoundTransaction();
+                booked.incrementAndGet();
+            } else {
+                ConnectionManager.rollbackBoundTransaction();
+            }
+            return reservation.getStatus();
+        } catch (SQLException e) {
+            // reserve() updated the caches when its savepoint was released, before this rollback
+            AvailabilityIndex.getInstance().invalidateAll();
+            BookingCounter.getInstance().invalidateAll();
+            VaccineCatalog.getInstance().invalidateAll();
+            throw e;
+        } finally {
+            ConnectionManager.endBoundTransaction();
+        }
+    }
+
+    // Getters
+    public long getBookedCount() {
+        return booked.get();
+    }
+
+    public long getAttemptCount() {
+        return attempts.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WaitlistMatcher{" +
+                "booked=" + getBookedCount() +
+                ", attempts=" + getAttemptCount() +
+                '}';
+    }
+}